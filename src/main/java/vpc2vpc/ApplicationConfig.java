@@ -1,40 +1,307 @@
 package vpc2vpc;
 
+import com.amazonaws.ClientConfiguration;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import org.apache.log4j.Logger;
 
 /**
- * Singleton class which is used to load the application configuration
+ * Singleton class which is used to load the application configuration. The
+ * properties are parsed once into an immutable, typed snapshot, so lookups
+ * are plain field reads and safe from any thread. Missing or invalid values
+ * fall back to the defaults below.
  *
  * @author Vinay Selvaraj
  */
 public class ApplicationConfig {
-  
-  private static ApplicationConfig instance;
-  private Properties props;
-  private final String APP_CONFIG_FILENAME = "application.properties";
-  private Logger LOG = Logger.getLogger(ApplicationConfig.class);
-  
-  private ApplicationConfig() throws IOException {
-    props = new Properties();
-    InputStream inputStream = this.getClass().getClassLoader().getResourceAsStream(APP_CONFIG_FILENAME);
-    if(inputStream == null) {
-      LOG.error("Unable to load application.properties");
-    } else {
-      props.load(inputStream);
+
+  private static final String APP_CONFIG_FILENAME = "application.properties";
+  private static final String AMI_PREFIX = "ami.";
+  private static Logger LOG = Logger.getLogger(ApplicationConfig.class);
+
+  /**
+   * Loads the configuration on first use
+   */
+  private static class Holder {
+
+    private static final ApplicationConfig INSTANCE = new ApplicationConfig(load());
+  }
+  private final Map<String, String> values;
+  private final Map<String, String> amis;
+  private final String instanceType;
+  private final List<String> regionAllowList;
+  private final List<String> regionDenyList;
+  private final int ec2MaxConnections;
+  private final int ec2ConnectionTimeoutMillis;
+  private final int ec2SocketTimeoutMillis;
+  private final int ec2MaxErrorRetry;
+  private final String inventoryCacheDir;
+  private final long inventoryCacheTtlMillis;
+  private final long regionsCacheTtlMillis;
+  private final long inventoryRefreshIntervalMillis;
+  private final long inventoryFullRefreshMillis;
+  private final long waitPollInitialMillis;
+  private final long waitPollMaxMillis;
+  private final long waitRunningTimeoutMillis;
+  private final long waitTerminatedTimeoutMillis;
+  private final long retryDependencyTimeoutMillis;
+  private final int rollbackRegionMaxThreads;
+  private final int regionExecutorThreads;
+  private final long regionCallTimeoutMillis;
+  private final long regionDeadlineMillis;
+  private final boolean regionVirtualThreads;
+  private final int createMaxThreads;
+  private final int createRegionMaxConcurrency;
+  private final String serverBindAddress;
+  private final int serverPort;
+  private final int serverMaxThreads;
+  private final String serverAuthToken;
+  private final boolean serverAllowRemote;
+
+  private ApplicationConfig(Properties props) {
+    Map<String, String> valueMap = new HashMap();
+    Map<String, String> amiMap = new HashMap();
+    for (String key : props.stringPropertyNames()) {
+      String value = props.getProperty(key).trim();
+      valueMap.put(key, value);
+      if (key.startsWith(AMI_PREFIX) && value.length() > 0) {
+        amiMap.put(key.substring(AMI_PREFIX.length()), value);
+      }
     }
+    values = Collections.unmodifiableMap(valueMap);
+    amis = Collections.unmodifiableMap(amiMap);
+
+    instanceType = getString("instance.type", "t1.micro");
+    String allow = getString("regions.allow", null);
+    regionAllowList = allow == null ? null : Collections.unmodifiableList(RegionFilter.split(allow));
+    regionDenyList = Collections.unmodifiableList(RegionFilter.split(getString("regions.deny", "")));
+    ec2MaxConnections = getInt("ec2.client.max_connections", ClientConfiguration.DEFAULT_MAX_CONNECTIONS);
+    ec2ConnectionTimeoutMillis = getInt("ec2.client.connection_timeout_ms", 10 * 1000);
+    ec2SocketTimeoutMillis = getInt("ec2.client.socket_timeout_ms", ClientConfiguration.DEFAULT_SOCKET_TIMEOUT);
+    ec2MaxErrorRetry = getInt("ec2.client.max_error_retry", ClientConfiguration.DEFAULT_MAX_RETRIES);
+    inventoryCacheDir = getString("inventory.cache.dir", null);
+    inventoryCacheTtlMillis = getLong("inventory.cache.ttl_seconds", 300) * 1000;
+    regionsCacheTtlMillis = getLong("inventory.cache.regions_ttl_seconds", 7 * 24 * 60 * 60) * 1000;
+    inventoryRefreshIntervalMillis = getLong("inventory.refresh.interval_seconds", 60) * 1000;
+    inventoryFullRefreshMillis = getLong("inventory.refresh.full_interval_seconds", 15 * 60) * 1000;
+    waitPollInitialMillis = getLong("wait.poll_initial_ms", 2 * 1000);
+    waitPollMaxMillis = getLong("wait.poll_max_ms", 15 * 1000);
+    waitRunningTimeoutMillis = getLong("wait.running_timeout_seconds", 5 * 60) * 1000;
+    waitTerminatedTimeoutMillis = getLong("wait.terminated_timeout_seconds", 10 * 60) * 1000;
+    retryDependencyTimeoutMillis = getLong("retry.dependency_timeout_seconds", 2 * 60) * 1000;
+    rollbackRegionMaxThreads = getInt("rollback.region_max_threads", 4);
+    regionExecutorThreads = getInt("region.executor.threads", 32);
+    regionCallTimeoutMillis = getLong("region.executor.call_timeout_seconds", 2 * 60) * 1000;
+    regionDeadlineMillis = getLong("region.executor.deadline_seconds", 5 * 60) * 1000;
+    regionVirtualThreads = Boolean.parseBoolean(getString("region.executor.virtual_threads", "false"));
+    createMaxThreads = getInt("create.max_threads", 16);
+    createRegionMaxConcurrency = getInt("create.region_max_concurrency", 4);
+    serverBindAddress = getString("server.bind_address", "127.0.0.1");
+    serverPort = getInt("server.port", 8702);
+    serverMaxThreads = getInt("server.max_threads", 8);
+    serverAuthToken = getString("server.auth_token", null);
+    serverAllowRemote = Boolean.parseBoolean(getString("server.allow_remote", "false"));
   }
-  
-  public static ApplicationConfig getInstance() throws IOException  {
-    if(instance == null) {
-      instance = new ApplicationConfig();
+
+  public static ApplicationConfig getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  private static Properties load() {
+    Properties props = new Properties();
+    InputStream inputStream = ApplicationConfig.class.getClassLoader().getResourceAsStream(APP_CONFIG_FILENAME);
+    if (inputStream == null) {
+      LOG.error("Unable to load application.properties");
+      return props;
+    }
+    try {
+      props.load(inputStream);
+    } catch (IOException e) {
+      LOG.error("Unable to load application.properties, using defaults: " + e.getMessage());
+    } finally {
+      try {
+        inputStream.close();
+      } catch (IOException e) {
+        LOG.debug("Unable to close application.properties: " + e.getMessage());
+      }
     }
-    return instance;
+    return props;
   }
-  
+
+  /**
+   * @param key
+   * @return the trimmed value, or null if it isn't set
+   */
   public String get(String key) {
-    return props.getProperty(key);
+    return values.get(key);
+  }
+
+  /**
+   * @param regionName
+   * @return the vpc2vpc AMI of the region, or null if there isn't one
+   */
+  public String getAmi(String regionName) {
+    return amis.get(regionName);
+  }
+
+  /**
+   * @return the names of the regions which have an AMI
+   */
+  public Set<String> getAmiRegionNames() {
+    return amis.keySet();
+  }
+
+  /**
+   * @return the regions.allow names and patterns, or null if it isn't set
+   */
+  public List<String> getRegionAllowList() {
+    return regionAllowList;
+  }
+
+  public List<String> getRegionDenyList() {
+    return regionDenyList;
+  }
+
+  public String getInstanceType() {
+    return instanceType;
+  }
+
+  public int getEc2MaxConnections() {
+    return ec2MaxConnections;
+  }
+
+  public int getEc2ConnectionTimeoutMillis() {
+    return ec2ConnectionTimeoutMillis;
+  }
+
+  public int getEc2SocketTimeoutMillis() {
+    return ec2SocketTimeoutMillis;
+  }
+
+  public int getEc2MaxErrorRetry() {
+    return ec2MaxErrorRetry;
+  }
+
+  /**
+   * @return the inventory cache directory, or null for the default
+   */
+  public String getInventoryCacheDir() {
+    return inventoryCacheDir;
+  }
+
+  public long getInventoryCacheTtlMillis() {
+    return inventoryCacheTtlMillis;
+  }
+
+  public long getRegionsCacheTtlMillis() {
+    return regionsCacheTtlMillis;
+  }
+
+  public long getInventoryRefreshIntervalMillis() {
+    return inventoryRefreshIntervalMillis;
+  }
+
+  public long getInventoryFullRefreshMillis() {
+    return inventoryFullRefreshMillis;
+  }
+
+  public long getWaitPollInitialMillis() {
+    return waitPollInitialMillis;
+  }
+
+  public long getWaitPollMaxMillis() {
+    return waitPollMaxMillis;
+  }
+
+  public long getWaitRunningTimeoutMillis() {
+    return waitRunningTimeoutMillis;
+  }
+
+  public long getWaitTerminatedTimeoutMillis() {
+    return waitTerminatedTimeoutMillis;
+  }
+
+  public long getRetryDependencyTimeoutMillis() {
+    return retryDependencyTimeoutMillis;
+  }
+
+  public int getRollbackRegionMaxThreads() {
+    return rollbackRegionMaxThreads;
+  }
+
+  public int getRegionExecutorThreads() {
+    return regionExecutorThreads;
+  }
+
+  public long getRegionCallTimeoutMillis() {
+    return regionCallTimeoutMillis;
+  }
+
+  public long getRegionDeadlineMillis() {
+    return regionDeadlineMillis;
+  }
+
+  public boolean isRegionVirtualThreads() {
+    return regionVirtualThreads;
+  }
+
+  public int getCreateMaxThreads() {
+    return createMaxThreads;
+  }
+
+  public int getCreateRegionMaxConcurrency() {
+    return createRegionMaxConcurrency;
+  }
+
+  public String getServerBindAddress() {
+    return serverBindAddress;
+  }
+
+  public int getServerPort() {
+    return serverPort;
+  }
+
+  public int getServerMaxThreads() {
+    return serverMaxThreads;
+  }
+
+  /**
+   * @return the token clients must send to the server, or null if none is
+   * required
+   */
+  public String getServerAuthToken() {
+    return serverAuthToken;
+  }
+
+  public boolean isServerAllowRemote() {
+    return serverAllowRemote;
+  }
+
+  private String getString(String key, String defaultValue) {
+    String value = values.get(key);
+    return value == null || value.length() == 0 ? defaultValue : value;
+  }
+
+  private int getInt(String key, int defaultValue) {
+    return (int) getLong(key, defaultValue);
+  }
+
+  private long getLong(String key, long defaultValue) {
+    String value = values.get(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      LOG.error("Invalid value for " + key + ": " + value);
+      return defaultValue;
+    }
   }
 }
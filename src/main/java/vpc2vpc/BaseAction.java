@@ -2,9 +2,10 @@ package vpc2vpc;
 
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.services.ec2.AmazonEC2Client;
-import com.amazonaws.services.ec2.model.DescribeRegionsResult;
 import com.amazonaws.services.ec2.model.Region;
+import java.util.ArrayList;
 import java.util.List;
+import org.apache.log4j.Logger;
 
 /**
  * Action
@@ -16,18 +17,88 @@ public abstract class BaseAction {
   protected String[] args;
   protected AWSCredentials awsCreds;
   protected List<Region> regions;
-  protected AmazonEC2Client ec2Client;
+  private Logger LOG = Logger.getLogger(BaseAction.class);
 
+  /**
+   * Creates the action without calling AWS. The regions are resolved by
+   * initAwsContext once the arguments have been parsed and validated.
+   *
+   * @param args
+   * @param awsCreds the credentials, or null if none were set
+   */
   public BaseAction(String[] args, AWSCredentials awsCreds) {
     this.args = args;
     this.awsCreds = awsCreds;
+  }
 
-    ec2Client = new AmazonEC2Client(awsCreds);
-    DescribeRegionsResult descRegionsResult = ec2Client.describeRegions();
-    if (descRegionsResult != null) {
-      regions = descRegionsResult.getRegions();
+  /**
+   * Creates the action with regions that are already known, without calling
+   * describeRegions
+   *
+   * @param args
+   * @param awsCreds
+   * @param regions
+   */
+  public BaseAction(String[] args, AWSCredentials awsCreds, List<Region> regions) {
+    this.args = args;
+    this.awsCreds = awsCreds;
+    this.regions = regions;
+  }
+
+  /**
+   * Checks the credentials and resolves the regions to use. Actions call
+   * this only once their arguments are valid, so help and argument errors
+   * never wait on AWS.
+   *
+   * @param regionsArg the --regions option, or null
+   * @param refresh bypass the cached region list
+   * @return false if there are no credentials or no region is selected
+   */
+  protected boolean initAwsContext(String regionsArg, boolean refresh) {
+    if (awsCreds == null) {
+      LOG.error("Please set AWS_ACCESS_KEY_ID and AWS_SECRET_ACCESS_KEY environment variables");
+      return false;
+    }
+    if (regions == null) {
+      regions = RegionCatalog.getInstance().getRegions(awsCreds, refresh);
     }
+    return scopeRegions(regionsArg);
+  }
+
+  /**
+   * Narrows the regions to the ones selected by --regions, or by
+   * regions.allow and regions.deny
+   *
+   * @param regionsArg the --regions option, or null
+   * @return false if no region is left
+   */
+  private boolean scopeRegions(String regionsArg) {
+    RegionFilter regionFilter = RegionFilter.fromConfig(regionsArg);
+    for (String unmatched : regionFilter.getUnmatched(regions)) {
+      LOG.warn("No region matches " + unmatched);
+    }
+    regions = regionFilter.filter(regions);
+    if (regions.isEmpty()) {
+      LOG.error("No regions selected (" + regionFilter + ")");
+      return false;
+    }
+
+    List<String> regionNames = new ArrayList();
+    for (Region region : regions) {
+      regionNames.add(region.getRegionName());
+    }
+    LOG.debug("Using regions " + regionNames);
+    return true;
+  }
 
+  /**
+   * Returns the shared EC2 client for the region
+   *
+   * @param region
+   * @return
+   */
+  protected AmazonEC2Client getEC2Client(Region region) {
+    return EC2ClientPool.getInstance().getClient(awsCreds, region);
   }
 
   public abstract void run();
@@ -0,0 +1,166 @@
+package vpc2vpc;
+
+import java.io.Serializable;
+
+/**
+ * An IPv4 CIDR block held as an int network address and a prefix length.
+ * Host bits of the parsed address are cleared, so 10.0.1.7/16 and
+ * 10.0.0.0/16 are the same block.
+ *
+ * @author Vinay Selvaraj
+ */
+public final class Cidr implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+  private final int address;
+  private final int prefixLength;
+
+  public Cidr(int address, int prefixLength) {
+    if (prefixLength < 0 || prefixLength > 32) {
+      throw new IllegalArgumentException("Invalid prefix length: " + prefixLength);
+    }
+    this.address = address & mask(prefixLength);
+    this.prefixLength = prefixLength;
+  }
+
+  /**
+   * Parses a block in a.b.c.d/n notation
+   *
+   * @param cidrNotation
+   * @return
+   * @throws IllegalArgumentException if the string is not an IPv4 CIDR block
+   */
+  public static Cidr parse(String cidrNotation) {
+    Cidr cidr = tryParse(cidrNotation);
+    if (cidr == null) {
+      throw new IllegalArgumentException("Invalid CIDR block: " + cidrNotation);
+    }
+    return cidr;
+  }
+
+  /**
+   * Parses a block in a.b.c.d/n notation
+   *
+   * @param cidrNotation
+   * @return the block, or null if the string is not an IPv4 CIDR block
+   */
+  public static Cidr tryParse(String cidrNotation) {
+    if (cidrNotation == null) {
+      return null;
+    }
+    int length = cidrNotation.length();
+    int address = 0;
+    int octets = 0;
+    int pos = 0;
+
+    // Four dot separated octets of 1-3 digits, the last one ending in '/'
+    while (octets < 4) {
+      int value = 0;
+      int digits = 0;
+      while (pos < length && digits < 4) {
+        char c = cidrNotation.charAt(pos);
+        if (c < '0' || c > '9') {
+          break;
+        }
+        value = value * 10 + (c - '0');
+        digits++;
+        pos++;
+      }
+      if (digits == 0 || digits > 3 || value > 255 || pos >= length) {
+        return null;
+      }
+      char separator = cidrNotation.charAt(pos++);
+      if (separator != (octets < 3 ? '.' : '/')) {
+        return null;
+      }
+      address = (address << 8) | value;
+      octets++;
+    }
+
+    // Prefix length of 1-2 digits, without a leading zero
+    int prefixLength = 0;
+    int digits = 0;
+    while (pos < length) {
+      char c = cidrNotation.charAt(pos++);
+      if (c < '0' || c > '9' || ++digits > 2) {
+        return null;
+      }
+      prefixLength = prefixLength * 10 + (c - '0');
+    }
+    if (digits == 0 || (digits == 2 && prefixLength < 10) || prefixLength > 32) {
+      return null;
+    }
+
+    return new Cidr(address, prefixLength);
+  }
+
+  public static int mask(int prefixLength) {
+    return prefixLength == 0 ? 0 : -1 << (32 - prefixLength);
+  }
+
+  public int getAddress() {
+    return address;
+  }
+
+  public int getPrefixLength() {
+    return prefixLength;
+  }
+
+  /**
+   * @return the first address of the block as an unsigned value
+   */
+  public long getFirst() {
+    return address & 0xffffffffL;
+  }
+
+  /**
+   * @return the last address of the block as an unsigned value
+   */
+  public long getLast() {
+    return getFirst() | (~mask(prefixLength) & 0xffffffffL);
+  }
+
+  /**
+   * @param index 0 for the most significant bit
+   * @return the bit of the network address at the index
+   */
+  public int getBit(int index) {
+    return (address >>> (31 - index)) & 1;
+  }
+
+  /**
+   * @param other
+   * @return true if the other block is equal to or inside this block
+   */
+  public boolean contains(Cidr other) {
+    return other.prefixLength >= prefixLength && (other.address & mask(prefixLength)) == address;
+  }
+
+  /**
+   * @param other
+   * @return true if the blocks share at least one address
+   */
+  public boolean overlaps(Cidr other) {
+    return contains(other) || other.contains(this);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof Cidr)) {
+      return false;
+    }
+    Cidr other = (Cidr) obj;
+    return address == other.address && prefixLength == other.prefixLength;
+  }
+
+  @Override
+  public int hashCode() {
+    return address * 31 + prefixLength;
+  }
+
+  @Override
+  public String toString() {
+    return ((address >>> 24) & 0xff) + "." + ((address >>> 16) & 0xff) + "."
+            + ((address >>> 8) & 0xff) + "." + (address & 0xff) + "/" + prefixLength;
+  }
+}
@@ -0,0 +1,107 @@
+package vpc2vpc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds the overlapping pairs in a set of CIDR blocks. Two CIDR blocks either
+ * are disjoint or one contains the other, so after sorting by first address
+ * (less specific first) a single sweep with a stack of the enclosing blocks
+ * finds every overlap in O(n log n + overlaps).
+ *
+ * @author Vinay Selvaraj
+ */
+public class CidrOverlapAnalyzer<V> {
+
+  /**
+   * Two values whose blocks overlap. The outer block contains the inner one,
+   * or is equal to it.
+   */
+  public static class Overlap<V> {
+
+    private Cidr outerCidr;
+    private V outer;
+    private Cidr innerCidr;
+    private V inner;
+
+    public Overlap(Cidr outerCidr, V outer, Cidr innerCidr, V inner) {
+      this.outerCidr = outerCidr;
+      this.outer = outer;
+      this.innerCidr = innerCidr;
+      this.inner = inner;
+    }
+
+    public Cidr getOuterCidr() {
+      return outerCidr;
+    }
+
+    public V getOuter() {
+      return outer;
+    }
+
+    public Cidr getInnerCidr() {
+      return innerCidr;
+    }
+
+    public V getInner() {
+      return inner;
+    }
+
+    @Override
+    public String toString() {
+      return outer + " (" + outerCidr + ") overlaps " + inner + " (" + innerCidr + ")";
+    }
+  }
+
+  private static class Entry<V> {
+
+    private Cidr cidr;
+    private V value;
+
+    private Entry(Cidr cidr, V value) {
+      this.cidr = cidr;
+      this.value = value;
+    }
+  }
+  private List<Entry<V>> entries = new ArrayList<Entry<V>>();
+
+  public void add(Cidr cidr, V value) {
+    entries.add(new Entry<V>(cidr, value));
+  }
+
+  /**
+   * @return every pair of added values whose blocks overlap
+   */
+  public List<Overlap<V>> findOverlaps() {
+    List<Entry<V>> sorted = new ArrayList<Entry<V>>(entries);
+    Collections.sort(sorted, new Comparator<Entry<V>>() {
+      public int compare(Entry<V> a, Entry<V> b) {
+        long firstA = a.cidr.getFirst();
+        long firstB = b.cidr.getFirst();
+        if (firstA != firstB) {
+          return firstA < firstB ? -1 : 1;
+        }
+        return a.cidr.getPrefixLength() - b.cidr.getPrefixLength();
+      }
+    });
+
+    List<Overlap<V>> overlaps = new ArrayList<Overlap<V>>();
+    List<Entry<V>> enclosing = new ArrayList<Entry<V>>();
+    for (Entry<V> entry : sorted) {
+      // Drop the blocks that end before this one starts. The rest all
+      // contain this block.
+      while (!enclosing.isEmpty()
+              && enclosing.get(enclosing.size() - 1).cidr.getLast() < entry.cidr.getFirst()) {
+        enclosing.remove(enclosing.size() - 1);
+      }
+      for (Entry<V> outer : enclosing) {
+        overlaps.add(new Overlap<V>(outer.cidr, outer.value, entry.cidr, entry.value));
+      }
+      enclosing.add(entry);
+    }
+
+    return overlaps;
+  }
+}
@@ -0,0 +1,129 @@
+package vpc2vpc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary prefix trie over the bits of IPv4 CIDR blocks. Each block is stored
+ * at depth equal to its prefix length, so finding the blocks that contain a
+ * block, or the blocks which lie inside it, takes at most 32 steps.
+ *
+ * @author Vinay Selvaraj
+ */
+public class CidrTrie<V> {
+
+  private static class Node<V> {
+
+    private Node<V> zero;
+    private Node<V> one;
+    private List<V> values;
+
+    private Node<V> child(int bit) {
+      return bit == 0 ? zero : one;
+    }
+  }
+
+  private Node<V> root = new Node<V>();
+  private int size;
+
+  /**
+   * Adds a value under the block. A block may hold several values.
+   *
+   * @param cidr
+   * @param value
+   */
+  public void put(Cidr cidr, V value) {
+    Node<V> node = root;
+    for (int i = 0; i < cidr.getPrefixLength(); i++) {
+      if (cidr.getBit(i) == 0) {
+        if (node.zero == null) {
+          node.zero = new Node<V>();
+        }
+        node = node.zero;
+      } else {
+        if (node.one == null) {
+          node.one = new Node<V>();
+        }
+        node = node.one;
+      }
+    }
+    if (node.values == null) {
+      node.values = new ArrayList<V>(1);
+    }
+    node.values.add(value);
+    size++;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @param cidr
+   * @return the values stored under exactly the block
+   */
+  public List<V> get(Cidr cidr) {
+    List<V> result = new ArrayList<V>();
+    Node<V> node = find(cidr);
+    if (node != null && node.values != null) {
+      result.addAll(node.values);
+    }
+    return result;
+  }
+
+  /**
+   * @param cidr
+   * @return the values of the blocks equal to or containing the block, least
+   * specific first
+   */
+  public List<V> getContaining(Cidr cidr) {
+    List<V> result = new ArrayList<V>();
+    Node<V> node = root;
+    for (int i = 0; node != null; i++) {
+      if (node.values != null) {
+        result.addAll(node.values);
+      }
+      if (i == cidr.getPrefixLength()) {
+        break;
+      }
+      node = node.child(cidr.getBit(i));
+    }
+    return result;
+  }
+
+  /**
+   * @param cidr
+   * @return the values of the blocks equal to or inside the block
+   */
+  public List<V> getContainedBy(Cidr cidr) {
+    List<V> result = new ArrayList<V>();
+    collect(find(cidr), result);
+    return result;
+  }
+
+  private Node<V> find(Cidr cidr) {
+    Node<V> node = root;
+    for (int i = 0; i < cidr.getPrefixLength() && node != null; i++) {
+      node = node.child(cidr.getBit(i));
+    }
+    if (node == root && size == 0) {
+      return null;
+    }
+    return node;
+  }
+
+  private void collect(Node<V> node, List<V> result) {
+    if (node == null) {
+      return;
+    }
+    if (node.values != null) {
+      result.addAll(node.values);
+    }
+    collect(node.zero, result);
+    collect(node.one, result);
+  }
+}
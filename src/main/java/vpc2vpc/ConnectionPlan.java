@@ -0,0 +1,106 @@
+package vpc2vpc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * A vpc2vpc connection to be created: the endpoints as given by the user and,
+ * once resolved against the inventory, the VPN endpoints
+ *
+ * @author Vinay Selvaraj
+ */
+public class ConnectionPlan {
+
+  private String vpc2vpcId = "vpc2vpc-" + UUID.randomUUID().toString().substring(0, 8);
+  private String source;
+  private List<EndpointSpec> endpointSpecs;
+  private List<VPNEndpoint> vpnEndpoints = new ArrayList();
+  private List<String> errors = new ArrayList();
+  private boolean created;
+
+  /**
+   * @param source where the connection was defined, used in messages
+   * @param endpointSpecs
+   */
+  public ConnectionPlan(String source, List<EndpointSpec> endpointSpecs) {
+    this.source = source;
+    this.endpointSpecs = endpointSpecs;
+  }
+
+  /**
+   * Reads a manifest of connections to create. Each line holds the endpoints
+   * of one connection separated by whitespace. Blank lines and lines starting
+   * with '#' are ignored.
+   *
+   * @param manifestPath
+   * @return
+   * @throws IOException
+   * @throws IllegalArgumentException if a line holds something other than an
+   * endpoint
+   */
+  public static List<ConnectionPlan> readManifest(String manifestPath) throws IOException {
+    List<String> lines = FileUtils.readLines(new File(manifestPath));
+
+    List<ConnectionPlan> plans = new ArrayList();
+    for (int i = 0; i < lines.size(); i++) {
+      String line = lines.get(i).trim();
+      if (line.length() == 0 || line.startsWith("#")) {
+        continue;
+      }
+
+      List<EndpointSpec> endpointSpecs = new ArrayList();
+      for (String token : line.split("\\s+")) {
+        EndpointSpec endpointSpec = EndpointSpec.parse(token);
+        if (endpointSpec == null) {
+          throw new IllegalArgumentException(manifestPath + " line " + (i + 1) + ": " + token
+                  + " is not a VPC ID, subnet ID or CIDR block");
+        }
+        endpointSpecs.add(endpointSpec);
+      }
+      plans.add(new ConnectionPlan(manifestPath + " line " + (i + 1), endpointSpecs));
+    }
+
+    return plans;
+  }
+
+  public String getVpc2vpcId() {
+    return vpc2vpcId;
+  }
+
+  public String getSource() {
+    return source;
+  }
+
+  public List<EndpointSpec> getEndpointSpecs() {
+    return endpointSpecs;
+  }
+
+  public List<VPNEndpoint> getVpnEndpoints() {
+    return vpnEndpoints;
+  }
+
+  public List<String> getErrors() {
+    return errors;
+  }
+
+  public void addError(String error) {
+    errors.add(error);
+  }
+
+  public boolean isCreated() {
+    return created;
+  }
+
+  public void setCreated(boolean created) {
+    this.created = created;
+  }
+
+  @Override
+  public String toString() {
+    return vpc2vpcId + " (" + source + ")";
+  }
+}
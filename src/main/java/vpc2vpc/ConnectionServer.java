@@ -0,0 +1,561 @@
+package vpc2vpc;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.services.ec2.model.Region;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.UnknownHostException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Runs vpc2vpc as a long running server. The regions, EC2 clients,
+ * configuration and inventory are loaded once and kept in memory, with an
+ * InventoryRefresher keeping the inventory current, and list, create and
+ * delete are served as JSON over HTTP:
+ *
+ * <pre>
+ * GET    /status
+ * GET    /connections[?refresh=true]
+ * POST   /connections        {"endpoints": [...]} or {"connections": [[...], ...]},
+ *                            optionally with "instance_type" and "refresh"
+ * DELETE /connections/{id}
+ * POST   /connections/delete {"ids": [...]}, {"all": true} and/or {"older_than": "7d"},
+ *                            optionally with "refresh"
+ * </pre>
+ *
+ * @author Vinay Selvaraj
+ */
+public class ConnectionServer extends BaseAction {
+
+  public static final String AUTH_TOKEN_HEADER = "X-Vpc2vpc-Token";
+  private Logger LOG = Logger.getLogger(ConnectionServer.class);
+  private ObjectMapper mapper = new ObjectMapper();
+  private InventoryRefresher inventoryRefresher;
+  private byte[] authToken;
+
+  public ConnectionServer(String[] args, AWSCredentials awsCreds) {
+    super(args, awsCreds);
+  }
+
+  public void run() {
+
+    Options options = new Options();
+    options.addOption("h", "help", false, "display the help message");
+    options.addOption("b", "bind", true, "address to listen on (default server.bind_address)");
+    options.addOption("p", "port", true, "port to listen on (default server.port)");
+    options.addOption(null, "regions", true, "regions to use, separated by commas (default regions.allow)");
+    options.addOption(null, "allow-remote", false, "listen on a non-loopback address without an auth token (default server.allow_remote)");
+    options.addOption("v", "verbose", false, "be extra verbose");
+
+    CommandLineParser parser = new PosixParser();
+    CommandLine cmd = null;
+
+    try {
+      cmd = parser.parse(options, args);
+    } catch (ParseException pe) {
+      LOG.error("Unable to parse command: " + pe.getMessage());
+      System.exit(1);
+    }
+
+    if (cmd.hasOption("v")) {
+      LogManager.getRootLogger().setLevel(Level.DEBUG);
+    }
+
+    if (cmd.hasOption("h")) {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp("vpc2vpc serve [options]", options);
+      System.exit(0);
+    }
+
+    ApplicationConfig appConfig = ApplicationConfig.getInstance();
+    String bindAddress = appConfig.getServerBindAddress();
+    int port = appConfig.getServerPort();
+    int maxThreads = appConfig.getServerMaxThreads();
+    long refreshIntervalMillis = appConfig.getInventoryRefreshIntervalMillis();
+    long fullRefreshMillis = appConfig.getInventoryFullRefreshMillis();
+
+    try {
+      if (cmd.hasOption("b")) {
+        bindAddress = cmd.getOptionValue("b");
+      }
+      if (cmd.hasOption("p")) {
+        port = Integer.parseInt(cmd.getOptionValue("p"));
+      }
+    } catch (NumberFormatException e) {
+      LOG.error("Invalid port: " + cmd.getOptionValue("p"));
+      System.exit(1);
+    }
+
+    // The API creates and deletes AWS resources, so it is only reachable from
+    // other hosts with an auth token or when explicitly allowed
+    String token = appConfig.getServerAuthToken();
+    if (token != null) {
+      try {
+        authToken = token.getBytes("UTF-8");
+      } catch (UnsupportedEncodingException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    boolean allowRemote = cmd.hasOption("allow-remote") || appConfig.isServerAllowRemote();
+    if (authToken == null && !allowRemote && !isLoopback(bindAddress)) {
+      LOG.error("Refusing to listen on " + bindAddress + " without server.auth_token set.  Use --allow-remote to listen without one");
+      System.exit(1);
+    }
+
+    if (!initAwsContext(cmd.getOptionValue("regions"), false)) {
+      System.exit(1);
+    }
+
+    // Warm up the inventory before accepting requests
+    inventoryRefresher = new InventoryRefresher(awsCreds, regions, fullRefreshMillis);
+    inventoryRefresher.start(Math.max(1000, refreshIntervalMillis));
+
+    final HttpServer server;
+    try {
+      server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+    } catch (IOException e) {
+      LOG.error("Unable to listen on " + bindAddress + ":" + port + ": " + e.getMessage());
+      System.exit(1);
+      return;
+    }
+    server.createContext("/status", new StatusHandler());
+    server.createContext("/connections", new ConnectionsHandler());
+    server.setExecutor(Executors.newFixedThreadPool(Math.max(1, maxThreads)));
+
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        server.stop(0);
+        inventoryRefresher.stop();
+        EC2ClientPool.getInstance().shutdown();
+      }
+    });
+
+    server.start();
+    LOG.info("vpc2vpc server listening on http://" + bindAddress + ":" + port);
+  }
+
+  private boolean isLoopback(String bindAddress) {
+    try {
+      return InetAddress.getByName(bindAddress).isLoopbackAddress();
+    } catch (UnknownHostException e) {
+      LOG.error("Unable to resolve " + bindAddress + ": " + e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Checks the request's auth token when the server has one, and sends a 401
+   * if it doesn't match
+   *
+   * @param exchange
+   * @return true if the request may proceed
+   * @throws IOException
+   */
+  private boolean authorize(HttpExchange exchange) throws IOException {
+    if (authToken == null) {
+      return true;
+    }
+    String token = exchange.getRequestHeaders().getFirst(AUTH_TOKEN_HEADER);
+    if (token != null && MessageDigest.isEqual(authToken, token.getBytes("UTF-8"))) {
+      return true;
+    }
+    sendError(exchange, 401, "Missing or invalid " + AUTH_TOKEN_HEADER + " header");
+    return false;
+  }
+
+  /**
+   * Returns the in-memory inventory, after re-describing every region if a
+   * refresh is requested
+   *
+   * @param refresh
+   * @return
+   */
+  private InventorySnapshot getInventory(boolean refresh) {
+    if (refresh) {
+      inventoryRefresher.refreshAll();
+    }
+    return inventoryRefresher.getSnapshot();
+  }
+
+  /**
+   * Re-describes the regions of the endpoints after a change to them
+   */
+  private void refreshInventory(List<VPNEndpoint> vpnEndpoints) {
+    Set<Region> changedRegions = new HashSet();
+    for (VPNEndpoint vpnEndpoint : vpnEndpoints) {
+      if (vpnEndpoint.getRegion() != null) {
+        changedRegions.add(vpnEndpoint.getRegion());
+      }
+    }
+    inventoryRefresher.refreshRegions(changedRegions);
+  }
+
+  private class StatusHandler implements HttpHandler {
+
+    public void handle(HttpExchange exchange) throws IOException {
+      if (!authorize(exchange)) {
+        return;
+      }
+      InventorySnapshot current = inventoryRefresher.getSnapshot();
+      Map<String, Object> status = new LinkedHashMap();
+      status.put("status", "ok");
+      status.put("regions", regions == null ? 0 : regions.size());
+      status.put("inventory_created_on", current == null ? null : current.getCreatedOn());
+      sendJson(exchange, 200, status);
+    }
+  }
+
+  private class ConnectionsHandler implements HttpHandler {
+
+    public void handle(HttpExchange exchange) throws IOException {
+      String method = exchange.getRequestMethod();
+      String path = exchange.getRequestURI().getPath();
+      String id = path.startsWith("/connections/") ? path.substring("/connections/".length()) : "";
+      if (!authorize(exchange)) {
+        return;
+      }
+
+      try {
+        if (id.length() == 0 && "GET".equals(method)) {
+          Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+          listConnections(exchange, "true".equals(query.get("refresh")));
+        } else if (id.length() == 0 && "POST".equals(method)) {
+          createConnections(exchange);
+        } else if ("delete".equals(id) && "POST".equals(method)) {
+          deleteConnections(exchange);
+        } else if (id.length() > 0 && "DELETE".equals(method)) {
+          deleteConnections(exchange, Collections.singleton(id), Long.MAX_VALUE, false);
+        } else {
+          sendError(exchange, 405, method + " " + path + " is not supported");
+        }
+      } catch (Exception e) {
+        LOG.error("Unable to handle " + method + " " + path + ": " + e.getMessage());
+        sendError(exchange, 500, e.getMessage());
+      }
+    }
+  }
+
+  private void listConnections(HttpExchange exchange, boolean refresh) throws IOException {
+    HashMap<String, VPC2VPCConnection> vpc2vpcIdConnections = VPC2VPCHelper.getInstance().getVPC2VPCConnections(awsCreds, getInventory(refresh));
+
+    List<Object> connections = new ArrayList();
+    for (VPC2VPCConnection vpc2vpcConnection : vpc2vpcIdConnections.values()) {
+      connections.add(toJson(vpc2vpcConnection));
+    }
+
+    Map<String, Object> response = new LinkedHashMap();
+    response.put("connections", connections);
+    sendJson(exchange, 200, response);
+  }
+
+  private void createConnections(HttpExchange exchange) throws IOException {
+    Map<String, Object> request;
+    try {
+      request = mapper.readValue(exchange.getRequestBody(), Map.class);
+    } catch (IOException e) {
+      sendError(exchange, 400, "Invalid JSON: " + e.getMessage());
+      return;
+    }
+
+    List<List<String>> connectionArgs = new ArrayList();
+    Object endpoints = request == null ? null : request.get("endpoints");
+    Object connections = request == null ? null : request.get("connections");
+    if (endpoints != null) {
+      List<String> endpointArgs = toStringList(endpoints);
+      if (endpointArgs == null) {
+        sendError(exchange, 400, "Expected \"endpoints\" to be a list of strings");
+        return;
+      }
+      connectionArgs.add(endpointArgs);
+    } else if (connections instanceof List) {
+      for (Object connection : (List<Object>) connections) {
+        List<String> endpointArgs = toStringList(connection);
+        if (endpointArgs == null) {
+          sendError(exchange, 400, "Expected \"connections\" to be a list of lists of strings");
+          return;
+        }
+        connectionArgs.add(endpointArgs);
+      }
+    } else {
+      sendError(exchange, 400, "Expected \"endpoints\" or \"connections\"");
+      return;
+    }
+
+    List<ConnectionPlan> plans = new ArrayList();
+    for (int i = 0; i < connectionArgs.size(); i++) {
+      List<EndpointSpec> endpointSpecs = new ArrayList();
+      for (String endpointArg : connectionArgs.get(i)) {
+        EndpointSpec endpointSpec = EndpointSpec.parse(endpointArg);
+        if (endpointSpec == null) {
+          sendError(exchange, 400, endpointArg + " is not a VPC ID, subnet ID or CIDR block");
+          return;
+        }
+        endpointSpecs.add(endpointSpec);
+      }
+      plans.add(new ConnectionPlan("connection " + (i + 1), endpointSpecs));
+    }
+
+    Object instanceType = request.get("instance_type");
+    if (instanceType != null && !(instanceType instanceof String)) {
+      sendError(exchange, 400, "Expected \"instance_type\" to be a string");
+      return;
+    }
+    Boolean refresh = getFlag(exchange, request, "refresh");
+    if (refresh == null) {
+      return;
+    }
+
+    CreateConnection createConnection = new CreateConnection(awsCreds, regions);
+    if (instanceType != null) {
+      createConnection.setInstanceType((String) instanceType);
+    }
+    boolean created = createConnection.createConnections(plans, getInventory(refresh));
+    if (createConnection.isValidated()) {
+      List<VPNEndpoint> vpnEndpoints = new ArrayList();
+      for (ConnectionPlan plan : plans) {
+        vpnEndpoints.addAll(plan.getVpnEndpoints());
+      }
+      refreshInventory(vpnEndpoints);
+    }
+
+    List<Object> results = new ArrayList();
+    for (ConnectionPlan plan : plans) {
+      Map<String, Object> result = new LinkedHashMap();
+      result.put("id", plan.getVpc2vpcId());
+      result.put("source", plan.getSource());
+      result.put("created", plan.isCreated());
+      result.put("errors", plan.getErrors());
+      results.add(result);
+    }
+
+    Map<String, Object> response = new LinkedHashMap();
+    response.put("created", created);
+    response.put("connections", results);
+    sendJson(exchange, created ? 200 : (createConnection.isValidated() ? 500 : 422), response);
+  }
+
+  private void deleteConnections(HttpExchange exchange) throws IOException {
+    Map<String, Object> request;
+    try {
+      request = mapper.readValue(exchange.getRequestBody(), Map.class);
+    } catch (IOException e) {
+      sendError(exchange, 400, "Invalid JSON: " + e.getMessage());
+      return;
+    }
+    if (request == null) {
+      request = new HashMap();
+    }
+
+    Set<String> vpc2vpcIds = new LinkedHashSet();
+    if (request.get("ids") != null) {
+      List<String> ids = toStringList(request.get("ids"));
+      if (ids == null) {
+        sendError(exchange, 400, "Expected \"ids\" to be a list of vpc2vpc connection IDs");
+        return;
+      }
+      vpc2vpcIds.addAll(ids);
+    }
+
+    Boolean all = getFlag(exchange, request, "all");
+    Boolean refresh = all == null ? null : getFlag(exchange, request, "refresh");
+    if (refresh == null) {
+      return;
+    }
+    long maxCreatedOn = Long.MAX_VALUE;
+    Object olderThan = request.get("older_than");
+    if (olderThan != null) {
+      long ageMillis = DeleteConnection.parseDuration(String.valueOf(olderThan));
+      if (ageMillis < 0) {
+        sendError(exchange, 400, "Invalid \"older_than\": " + olderThan + ".  Use a number followed by s, m, h or d");
+        return;
+      }
+      maxCreatedOn = System.currentTimeMillis() - ageMillis;
+    }
+
+    if (vpc2vpcIds.isEmpty() && !all && olderThan == null) {
+      sendError(exchange, 400, "Expected \"ids\", \"all\" or \"older_than\"");
+      return;
+    }
+
+    deleteConnections(exchange, vpc2vpcIds, maxCreatedOn, refresh);
+  }
+
+  /**
+   * Tears down the selected connections with one rollback, so each region's
+   * instances are terminated and waited on in one go
+   *
+   * @param exchange
+   * @param vpc2vpcIds the connections to delete, or empty for all of them
+   * @param maxCreatedOn only delete connections created at or before this
+   * time, or Long.MAX_VALUE for any time
+   * @param refresh re-describe every region first
+   * @throws IOException
+   */
+  private void deleteConnections(HttpExchange exchange, Set<String> vpc2vpcIds, long maxCreatedOn,
+          boolean refresh) throws IOException {
+    HashMap<String, VPC2VPCConnection> vpc2vpcIdConnections = VPC2VPCHelper.getInstance().getVPC2VPCConnections(awsCreds, getInventory(refresh));
+    for (String vpc2vpcId : vpc2vpcIds) {
+      if (!vpc2vpcIdConnections.containsKey(vpc2vpcId)) {
+        sendError(exchange, 404, "Unable to find a vpc2vpc connection with the ID: " + vpc2vpcId);
+        return;
+      }
+    }
+
+    List<String> deletedIds = new ArrayList();
+    List<VPNEndpoint> vpnEndpoints = new ArrayList();
+    for (VPC2VPCConnection vpc2vpcConnection : DeleteConnection.selectConnections(vpc2vpcIdConnections, vpc2vpcIds, maxCreatedOn)) {
+      LOG.info("Deleting vpc2vpc connection " + vpc2vpcConnection.getId());
+      deletedIds.add(vpc2vpcConnection.getId());
+      vpnEndpoints.addAll(vpc2vpcConnection.getVpcIdVpnEndpoint().values());
+    }
+
+    RollbackResult rollbackResult = new RollbackResult();
+    if (!vpnEndpoints.isEmpty()) {
+      rollbackResult = RollbackHelper.getInstance().rollback(awsCreds, vpnEndpoints, false);
+      refreshInventory(vpnEndpoints);
+    }
+
+    List<Object> outcomes = new ArrayList();
+    for (RollbackResult.Outcome outcome : rollbackResult.getOutcomes()) {
+      Map<String, Object> result = new LinkedHashMap();
+      result.put("region", outcome.getRegionName());
+      result.put("type", outcome.getResourceType());
+      result.put("id", outcome.getResourceId());
+      result.put("successful", outcome.isSuccessful());
+      result.put("error", outcome.getErrorMessage());
+      outcomes.add(result);
+    }
+
+    Map<String, Object> response = new LinkedHashMap();
+    response.put("ids", deletedIds);
+    response.put("deleted", rollbackResult.isSuccessful());
+    response.put("outcomes", outcomes);
+    sendJson(exchange, rollbackResult.isSuccessful() ? 200 : 500, response);
+  }
+
+  /**
+   * @param rawQuery the query string, still URL encoded, or null
+   * @return the query parameters; the first value wins for a repeated name
+   */
+  private Map<String, String> parseQuery(String rawQuery) throws IOException {
+    Map<String, String> params = new HashMap();
+    if (rawQuery == null) {
+      return params;
+    }
+    for (String param : rawQuery.split("&")) {
+      if (param.length() == 0) {
+        continue;
+      }
+      int equals = param.indexOf('=');
+      String name = URLDecoder.decode(equals < 0 ? param : param.substring(0, equals), "UTF-8");
+      String value = equals < 0 ? "" : URLDecoder.decode(param.substring(equals + 1), "UTF-8");
+      if (!params.containsKey(name)) {
+        params.put(name, value);
+      }
+    }
+    return params;
+  }
+
+  /**
+   * Reads an optional boolean from a JSON request, sending a 400 if it is
+   * something else
+   *
+   * @return the value, false if it is missing, or null if it is invalid
+   */
+  private Boolean getFlag(HttpExchange exchange, Map<String, Object> request, String name) throws IOException {
+    Object value = request.get(name);
+    if (value == null) {
+      return false;
+    }
+    if (!(value instanceof Boolean)) {
+      sendError(exchange, 400, "Expected \"" + name + "\" to be true or false");
+      return null;
+    }
+    return (Boolean) value;
+  }
+
+  /**
+   * @param value a value read from a JSON request
+   * @return the value as a list of strings, or null if it is something else
+   */
+  private List<String> toStringList(Object value) {
+    if (!(value instanceof List)) {
+      return null;
+    }
+    List<String> strings = new ArrayList();
+    for (Object item : (List<Object>) value) {
+      if (!(item instanceof String)) {
+        return null;
+      }
+      strings.add((String) item);
+    }
+    return strings;
+  }
+
+  private Map<String, Object> toJson(VPC2VPCConnection vpc2vpcConnection) {
+    List<Object> endpoints = new ArrayList();
+    for (VPNEndpoint vpnEndpoint : vpc2vpcConnection.getVpcIdVpnEndpoint().values()) {
+      Map<String, Object> endpoint = new LinkedHashMap();
+      endpoint.put("vpc_id", vpnEndpoint.getVpc().getVpcId());
+      endpoint.put("cidr_block", vpnEndpoint.getVpc().getCidrBlock());
+      endpoint.put("region", vpnEndpoint.getRegion().getRegionName());
+      endpoint.put("subnet_id", vpnEndpoint.getSubnet() == null ? null : vpnEndpoint.getSubnet().getSubnetId());
+      endpoint.put("instance_id", vpnEndpoint.getInstance() == null ? null : vpnEndpoint.getInstance().getInstanceId());
+      endpoint.put("public_ip", vpnEndpoint.getElasticIPAddress());
+      endpoints.add(endpoint);
+    }
+
+    Map<String, Object> connection = new LinkedHashMap();
+    connection.put("id", vpc2vpcConnection.getId());
+    connection.put("created_on", vpc2vpcConnection.getCreatedOn() == null ? null : vpc2vpcConnection.getCreatedOn().getTime());
+    connection.put("endpoints", endpoints);
+    return connection;
+  }
+
+  private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+    Map<String, Object> response = new LinkedHashMap();
+    response.put("error", message);
+    sendJson(exchange, status, response);
+  }
+
+  private void sendJson(HttpExchange exchange, int status, Object response) throws IOException {
+    byte[] body = mapper.writeValueAsBytes(response);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, body.length);
+    OutputStream out = exchange.getResponseBody();
+    try {
+      out.write(body);
+    } finally {
+      out.close();
+    }
+  }
+
+}
@@ -1,6 +1,7 @@
 package vpc2vpc;
 
 import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.model.AllocateAddressRequest;
 import com.amazonaws.services.ec2.model.AllocateAddressResult;
 import com.amazonaws.services.ec2.model.AssociateAddressRequest;
@@ -9,11 +10,8 @@ import com.amazonaws.services.ec2.model.CreateRouteRequest;
 import com.amazonaws.services.ec2.model.CreateSecurityGroupRequest;
 import com.amazonaws.services.ec2.model.CreateSecurityGroupResult;
 import com.amazonaws.services.ec2.model.CreateTagsRequest;
-import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
-import com.amazonaws.services.ec2.model.DescribeRouteTablesResult;
 import com.amazonaws.services.ec2.model.DomainType;
 import com.amazonaws.services.ec2.model.Instance;
-import com.amazonaws.services.ec2.model.InstanceType;
 import com.amazonaws.services.ec2.model.IpPermission;
 import com.amazonaws.services.ec2.model.ModifyNetworkInterfaceAttributeRequest;
 import com.amazonaws.services.ec2.model.NetworkInterface;
@@ -27,11 +25,23 @@ import com.amazonaws.services.ec2.model.RunInstancesResult;
 import com.amazonaws.services.ec2.model.Subnet;
 import com.amazonaws.services.ec2.model.Tag;
 import com.amazonaws.services.ec2.model.Vpc;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.HelpFormatter;
@@ -52,16 +62,11 @@ import org.apache.log4j.Logger;
 public class CreateConnection extends BaseAction {
 
   private Logger LOG = Logger.getLogger(CreateConnection.class);
-  private List<Vpc> vpcs;
-  private List<Subnet> subnets;
-  private HashMap<String, Vpc> vpcIdMap;
-  private HashMap<String, List<Vpc>> vpcCidrMap;
-  private HashMap<String, Subnet> subnetIdMap;
-  private HashMap<String, List<Subnet>> subnetCidrMap;
-  private HashMap<String, Region> vpcIdRegionMap;
-  private HashMap<String, Region> subnetIdRegionMap;
-  private HashMap<String, List<RouteTable>> vpcIdRouteTableMap;
-  String vpc2vpcId = "vpc2vpc-" + UUID.randomUUID().toString().substring(0, 8);
+  private InventorySnapshot inventory;
+  private RouteTableIndex routeTableIndex;
+  private boolean validated;
+  private static final ConcurrentMap<String, Lock> vpcLocks = new ConcurrentHashMap();
+  private String instanceType = ApplicationConfig.getInstance().getInstanceType();
   private final String CLOUD_INIT_TEMPLATE = "cloud-init.template";
   private final String CLOUD_INIT_IPSEC_CONF_TEMPLATE = "cloud-init-ipsec-conf.template";
 
@@ -69,13 +74,20 @@ public class CreateConnection extends BaseAction {
     super(args, awsCreds);
   }
 
+  public CreateConnection(AWSCredentials awsCreds, List<Region> regions) {
+    super(new String[0], awsCreds, regions);
+  }
+
   public void run() {
 
     Options options = new Options();
 
     options.addOption("h", "help", false, "display the help message");
-    options.addOption("t", "instance-type", true, "instance type (t1.micro, m1.small, etc..)");
+    options.addOption("t", "instance-type", true, "instance type (t1.micro, m1.small, etc..), default instance.type");
     options.addOption("v", "verbose", false, "be extra verbose");
+    options.addOption("r", "refresh", false, "ignore the local inventory cache");
+    options.addOption("m", "manifest", true, "create the connections listed in a file, one per line");
+    options.addOption(null, "regions", true, "regions to use, separated by commas (default regions.allow)");
 
     CommandLineParser parser = new PosixParser();
 
@@ -96,368 +108,678 @@ public class CreateConnection extends BaseAction {
 
       if (cmd.hasOption("h")) {
         HelpFormatter formatter = new HelpFormatter();
-        formatter.printHelp("vpc2vpc create [options] <endpoint1> <endpoint2> <endpointX>", options);
+        formatter.printHelp("vpc2vpc create [options] <endpoint1> <endpoint2> <endpointX> | --manifest <file>", options);
         System.exit(0);
       }
-    }
 
-    populateLookupData();
+      if (cmd.hasOption("t")) {
+        instanceType = cmd.getOptionValue("t");
+      }
+    }
 
-    List<String> endpointArgs = new ArrayList();
-    for (String arg : args) {
-      if (isCidr(arg) || isSubnetId(arg) || isVpcId(arg)) {
-        endpointArgs.add(arg);
+    // Validate the arguments before anything calls AWS
+    List<ConnectionPlan> plans;
+    if (cmd != null && cmd.hasOption("m")) {
+      plans = readManifest(cmd.getOptionValue("m"));
+    } else {
+      List<EndpointSpec> endpointArgs = new ArrayList();
+      String[] positionalArgs = cmd == null ? new String[0] : cmd.getArgs();
+      for (int i = 1; i < positionalArgs.length; i++) {
+        EndpointSpec endpointSpec = EndpointSpec.parse(positionalArgs[i]);
+        if (endpointSpec == null) {
+          LOG.error("Invalid endpoint " + positionalArgs[i] + ".  Use a VPC ID, subnet ID or CIDR block");
+          System.exit(1);
+        }
+        endpointArgs.add(endpointSpec);
       }
+      plans = new ArrayList();
+      plans.add(new ConnectionPlan("command line", endpointArgs));
     }
 
-    List<VPNEndpoint> vpnEndpoints = new ArrayList();
-    for (String endpointArg : endpointArgs) {
-      VPNEndpoint endpoint = getVpnEndpoint(endpointArg);
-      if (endpoint != null) {
-        vpnEndpoints.add(endpoint);
+    if (plans == null) {
+      System.exit(1);
+    }
+    for (ConnectionPlan plan : plans) {
+      if (plan.getEndpointSpecs().size() < 2) {
+        LOG.error(plan.getSource() + ": a connection needs two or more endpoints");
+        System.exit(1);
       }
     }
 
-    if (endpointArgs.size() != vpnEndpoints.size()) {
-      LOG.error("Errors detected.  Aborting operation");
+    boolean refresh = cmd != null && cmd.hasOption("r");
+    if (!initAwsContext(cmd == null ? null : cmd.getOptionValue("regions"), refresh)) {
       System.exit(1);
     }
 
-    if (areEndpointsDuplicate(vpnEndpoints)) {
-      LOG.error("Two or more endpoints contain the same VPC ID or CIDR block.  Aborting operation");
+    // Only sweep the regions which hold the endpoints, when they can be located
+    List<EndpointSpec> endpointSpecs = new ArrayList();
+    for (ConnectionPlan plan : plans) {
+      endpointSpecs.addAll(plan.getEndpointSpecs());
+    }
+    List<Region> endpointRegions = InventoryHelper.getInstance().locateRegions(awsCreds, regions, endpointSpecs);
+    if (endpointRegions != null) {
+      regions = endpointRegions;
+    }
+
+    populateLookupData(refresh);
+
+    if (!createConnections(plans, inventory)) {
       System.exit(1);
     }
 
-    LOG.debug("Found " + vpnEndpoints.size() + " endpoints");
-    for (VPNEndpoint endpoint : vpnEndpoints) {
-      LOG.debug(endpoint);
-      updateOrConfirmPublicSubnet(endpoint);
-      LOG.debug(endpoint);
+  }
 
-      // Abort if a public subnet is not set
-      if (endpoint.getSubnet() == null) {
-        LOG.error("Aborting operation");
-        System.exit(1);
+  /**
+   * Validates the connections against the inventory and, if they are all
+   * valid, creates them. Errors are logged and recorded on the plans.
+   *
+   * @param plans
+   * @param inventory
+   * @return true if all the connections were created
+   */
+  public boolean createConnections(List<ConnectionPlan> plans, InventorySnapshot inventory) {
+    this.inventory = inventory;
+    this.validated = false;
+
+    if (plans.isEmpty()) {
+      LOG.error("No connections to create.  Aborting operation");
+      return false;
+    }
+
+    boolean errorsDetected = false;
+    for (ConnectionPlan plan : plans) {
+      if (!resolveEndpoints(plan)) {
+        errorsDetected = true;
       }
     }
 
-    // From this point on, we're going to be creating things
-    LOG.info("Preparing to create vpc2vpc connection");
+    if (errorsDetected) {
+      LOG.error("Errors detected.  Aborting operation");
+      return false;
+    }
 
-    try {
+    List<VPNEndpoint> allVpnEndpoints = new ArrayList();
+    for (ConnectionPlan plan : plans) {
+      allVpnEndpoints.addAll(plan.getVpnEndpoints());
+    }
+
+    LOG.debug("Found " + allVpnEndpoints.size() + " endpoints in " + plans.size() + " connections");
 
-      // Check if routes exist
-      if (checkIfRoutesExist(vpnEndpoints)) {
-        throw new RuntimeException("One or more VPC to VPC routes already exist between the endpoints");
+    // Creates in this process, e.g. concurrent server requests, are serialized
+    // per VPC from the route check until their routes exist, so two of them
+    // cannot both pass the check.  Other vpc2vpc processes are not covered.
+    List<Lock> locks = lockVpcs(allVpnEndpoints);
+    try {
+      return validateAndProvision(plans, allVpnEndpoints);
+    } finally {
+      for (Lock lock : locks) {
+        lock.unlock();
       }
+    }
+  }
 
-      // Starting with the elastic IPs
-      allocateElasticIPs(vpnEndpoints);
-      LOG.debug("Allocated elastic IPs");
+  /**
+   * Locks the VPCs of the endpoints in sorted order, so concurrent creates
+   * sharing VPCs cannot deadlock
+   *
+   * @param vpnEndpoints
+   * @return the locks taken
+   */
+  private List<Lock> lockVpcs(List<VPNEndpoint> vpnEndpoints) {
+    Set<String> vpcIds = new TreeSet();
+    for (VPNEndpoint vpnEndpoint : vpnEndpoints) {
+      vpcIds.add(vpnEndpoint.getVpc().getVpcId());
+    }
 
-      // Configure Security Groups
-      configureSecurityGroups(vpnEndpoints);
-      LOG.debug("Configured security groups");
+    List<Lock> locks = new ArrayList();
+    for (String vpcId : vpcIds) {
+      Lock lock = vpcLocks.get(vpcId);
+      if (lock == null) {
+        Lock newLock = new ReentrantLock();
+        lock = vpcLocks.putIfAbsent(vpcId, newLock);
+        if (lock == null) {
+          lock = newLock;
+        }
+      }
+      if (!lock.tryLock()) {
+        LOG.info("Waiting on another vpc2vpc create using " + vpcId);
+        lock.lock();
+      }
+      locks.add(lock);
+    }
+    return locks;
+  }
 
-      // Launch the EC2 instances
-      launchInstances(vpnEndpoints);
-      LOG.debug("Launched vpc2vpc instances");
+  private boolean validateAndProvision(List<ConnectionPlan> plans, List<VPNEndpoint> allVpnEndpoints) {
+    boolean errorsDetected = false;
+    loadRouteTables(allVpnEndpoints);
+    for (ConnectionPlan plan : plans) {
+      for (VPNEndpoint endpoint : plan.getVpnEndpoints()) {
+        LOG.debug(endpoint);
+        updateOrConfirmPublicSubnet(endpoint);
+        LOG.debug(endpoint);
+
+        // Abort if a public subnet is not set
+        if (endpoint.getSubnet() == null) {
+          plan.addError("No public subnet found in " + endpoint.getVpc().getVpcId());
+          errorsDetected = true;
+        }
+      }
+    }
 
-      // Wait for instances to start up
-      waitOnInstances(vpnEndpoints);
+    if (errorsDetected) {
+      LOG.error("Aborting operation");
+      return false;
+    }
 
-      // Disable Src/Dest checks on instances
-      disableSrcDestCheck(vpnEndpoints);
+    // Check if routes exist, or would be created twice by the batch
+    if (checkIfRoutesExist(plans)) {
+      LOG.error("One or more VPC to VPC routes already exist between the endpoints.  Aborting operation");
+      return false;
+    }
 
-      // Create tags
-      createTags(vpnEndpoints);
+    // From this point on, we're going to be creating things
+    LOG.info("Preparing to create " + plans.size() + " vpc2vpc connection(s)");
+    validated = true;
 
-      // Associate Public IP
-      associatePublicIP(vpnEndpoints);
+    return provisionConnections(plans);
+  }
 
-      // Setup Routes
-      createAndAssociateRoutes(vpnEndpoints);
+  /**
+   * @param instanceType the instance type to launch, instead of
+   * instance.type
+   */
+  public void setInstanceType(String instanceType) {
+    this.instanceType = instanceType;
+  }
 
-      LOG.info("vpc2vpc connection (" + vpc2vpcId + ") has been created.  Please allow 15 minutes for VPN to start");
+  /**
+   * @return true if the last createConnections call got past validation and
+   * started creating resources
+   */
+  public boolean isValidated() {
+    return validated;
+  }
 
-    } catch (Exception e) {
-      LOG.error("Aborting operation: " + e.getMessage());
-      RollbackHelper.getInstance().rollback(awsCreds, vpnEndpoints, false);
-      System.exit(1);
+  /**
+   * Reads a manifest of connections to create
+   *
+   * @param manifestPath
+   * @return the connections, or null if the manifest could not be read or is
+   * invalid
+   */
+  private List<ConnectionPlan> readManifest(String manifestPath) {
+    try {
+      return ConnectionPlan.readManifest(manifestPath);
+    } catch (IOException e) {
+      LOG.error("Unable to read manifest " + manifestPath + ": " + e.getMessage());
+    } catch (IllegalArgumentException e) {
+      LOG.error(e.getMessage());
     }
-
+    return null;
   }
 
   /**
-   * Checks if routes between the selected VPCs already exist
+   * Resolves the endpoints of a connection against the inventory
    *
-   * @param vpnEndpoints
-   * @return
+   * @param plan
+   * @return false if an endpoint could not be resolved or the endpoints are
+   * invalid together
    */
-  private boolean checkIfRoutesExist(List<VPNEndpoint> vpnEndpoints) {
-    boolean routesExist = false;
+  private boolean resolveEndpoints(ConnectionPlan plan) {
+    if (plan.getEndpointSpecs().size() < 2) {
+      LOG.error(plan.getSource() + ": a connection needs two or more endpoints");
+      plan.addError("A connection needs two or more endpoints");
+      return false;
+    }
 
-    for (VPNEndpoint vpnEndpoint : vpnEndpoints) {
-      ec2Client.setEndpoint(vpnEndpoint.getRegion().getEndpoint());
-      DescribeRouteTablesResult descRouteTableResult = ec2Client.describeRouteTables();
-      List<RouteTable> routeTables = descRouteTableResult.getRouteTables();
-
-      for (RouteTable routeTable : routeTables) {
-        if (routeTable.getVpcId().equals(vpnEndpoint.getVpc().getVpcId())) {
-          List<Route> routes = routeTable.getRoutes();
-          for (Route route : routes) {
-            for (VPNEndpoint extVpnEndpoint : vpnEndpoints) {
-              if (!vpnEndpoint.equals(extVpnEndpoint)) {
-                LOG.debug("Checking if route allows requested traffic: " + route);
-                if (route.getDestinationCidrBlock().endsWith(extVpnEndpoint.getVpc().getCidrBlock())) {
-                  routesExist = true;
-                  LOG.error("A route already exists between " + vpnEndpoint.getVpc().getCidrBlock() + " and " + extVpnEndpoint.getVpc().getCidrBlock());
-                }
-              }
-            }
-          }
-        }
+    boolean resolved = true;
+    for (EndpointSpec endpointArg : plan.getEndpointSpecs()) {
+      VPNEndpoint endpoint = getVpnEndpoint(endpointArg);
+      if (endpoint != null) {
+        plan.getVpnEndpoints().add(endpoint);
+      } else {
+        plan.addError("Unable to resolve endpoint " + endpointArg);
+        resolved = false;
       }
+    }
 
+    if (resolved && areEndpointsDuplicate(plan.getVpnEndpoints())) {
+      LOG.error(plan.getSource() + ": two or more endpoints contain the same VPC ID or overlapping CIDR blocks");
+      plan.addError("Two or more endpoints contain the same VPC ID or overlapping CIDR blocks");
+      resolved = false;
     }
 
-    return routesExist;
+    return resolved;
   }
 
   /**
-   * Create routes
+   * Creates the connections. Each connection's task graph runs on a shared,
+   * bounded executor and the tasks that call EC2 are queued per region until
+   * the region has room. The waits on instances run on their own executor.
+   * A connection that fails is rolled back without affecting the others.
    *
-   * @param vpnEndpoints
+   * @param plans
+   * @return true if all the connections were created
    */
-  private void createAndAssociateRoutes(List<VPNEndpoint> vpnEndpoints) {
-
-    for (VPNEndpoint vpnEndpoint : vpnEndpoints) {
-      ec2Client.setEndpoint(vpnEndpoint.getRegion().getEndpoint());
-
-      for (VPNEndpoint extVpnEndpoint : vpnEndpoints) {
-        if (!vpnEndpoint.equals(extVpnEndpoint)) {
-
-          // Get route tables
-          DescribeRouteTablesResult descRouteTablesResult = ec2Client.describeRouteTables();
-          List<RouteTable> routeTables = descRouteTablesResult.getRouteTables();
-          for (RouteTable routeTable : routeTables) {
-            if (routeTable.getVpcId().equals(vpnEndpoint.getVpc().getVpcId())) {
-              // Create the route
-              CreateRouteRequest createRouteReq = new CreateRouteRequest();
-              createRouteReq.setDestinationCidrBlock(extVpnEndpoint.getVpc().getCidrBlock());
-              createRouteReq.setInstanceId(vpnEndpoint.getInstance().getInstanceId());
-              createRouteReq.setRouteTableId(routeTable.getRouteTableId());
-              LOG.debug("About to create a route in " + vpnEndpoint.getVpc().getVpcId() + " to " + extVpnEndpoint.getVpc().getVpcId() + " in route table: " + routeTable.getRouteTableId());
-              ec2Client.createRoute(createRouteReq);
-              LOG.debug("Created route in " + vpnEndpoint.getVpc().getVpcId() + " to " + extVpnEndpoint.getVpc().getVpcId() + " in route table: " + routeTable.getRouteTableId());
-            }
+  private boolean provisionConnections(List<ConnectionPlan> plans) {
+    ApplicationConfig appConfig = ApplicationConfig.getInstance();
+    int maxThreads = appConfig.getCreateMaxThreads();
+    int regionMaxConcurrency = appConfig.getCreateRegionMaxConcurrency();
+
+    final ExecutorService taskExecutor = Executors.newFixedThreadPool(Math.max(1, maxThreads));
+    final ExecutorService waitExecutor = Executors.newCachedThreadPool();
+    final RegionLimiter regionLimiter = new RegionLimiter(regionMaxConcurrency);
+    final List<ConnectionPlan> failedPlans = Collections.synchronizedList(new ArrayList<ConnectionPlan>());
+
+    // Each connection waits on its own graph in a separate thread, so the
+    // task executor's threads only ever run EC2 calls: tasks over a region's
+    // limit stay queued in the limiter and the waits on instances have their
+    // own executor. At most create.max_threads connections are in flight,
+    // the rest queue.
+    ExecutorService connectionExecutor = Executors.newFixedThreadPool(Math.max(1, Math.min(plans.size(), maxThreads)));
+    for (final ConnectionPlan plan : plans) {
+      connectionExecutor.execute(new Runnable() {
+        public void run() {
+          if (!provisionConnection(plan, taskExecutor, waitExecutor, regionLimiter)) {
+            failedPlans.add(plan);
           }
         }
-      }
+      });
+    }
 
+    connectionExecutor.shutdown();
+    try {
+      connectionExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      LOG.error("Caught InterruptedException: " + e.getMessage());
     }
+    taskExecutor.shutdown();
+    waitExecutor.shutdown();
 
+    if (plans.size() > 1) {
+      LOG.info((plans.size() - failedPlans.size()) + " of " + plans.size() + " vpc2vpc connections created");
+    }
+    return failedPlans.isEmpty();
   }
 
-  private void configureSecurityGroups(List<VPNEndpoint> vpnEndpoints) {
-    for (VPNEndpoint vpnEndpoint : vpnEndpoints) {
-      ec2Client.setEndpoint(vpnEndpoint.getRegion().getEndpoint());
-
-      String securityGroupName = vpc2vpcId;
-
-      // Create Security Group
-      CreateSecurityGroupRequest createSecGrpReq = new CreateSecurityGroupRequest();
-      createSecGrpReq.setGroupName(securityGroupName);
-      createSecGrpReq.setDescription("vpc2vpc Security Group");
-      createSecGrpReq.setVpcId(vpnEndpoint.getVpc().getVpcId());
-      LOG.debug("Creating security group in " + vpnEndpoint.getRegion().getRegionName());
-      CreateSecurityGroupResult createSecGrpResult = ec2Client.createSecurityGroup(createSecGrpReq);
-      String securityGroupId = createSecGrpResult.getGroupId();
-      LOG.debug("Created security group " + securityGroupId + " in " + vpnEndpoint.getRegion().getRegionName());
-
-      // Set the endpoint's security group
-      vpnEndpoint.setSecurityGroupId(securityGroupId);
-
-      // Get a list of external endpoint's EIPs
-      List<String> ipRanges = new ArrayList();
-      for (VPNEndpoint extVpnEndpoint : vpnEndpoints) {
-        if (!vpnEndpoint.equals(extVpnEndpoint)) {
-          ipRanges.add(extVpnEndpoint.getElasticIPAddress() + "/32");
-        }
+  /**
+   * Creates a single connection, rolling it back on failure
+   *
+   * @return true if the connection was created
+   */
+  private boolean provisionConnection(ConnectionPlan plan, ExecutorService taskExecutor,
+          ExecutorService waitExecutor, RegionLimiter regionLimiter) {
+    List<VPNEndpoint> vpnEndpoints = plan.getVpnEndpoints();
+    try {
+
+      // Create the EIPs, security groups, instances and routes
+      provisionEndpoints(plan.getVpc2vpcId(), vpnEndpoints, taskExecutor, waitExecutor, regionLimiter);
+      InventoryHelper.getInstance().invalidate(awsCreds, vpnEndpoints);
+
+      LOG.info("vpc2vpc connection (" + plan.getVpc2vpcId() + ") has been created.  Please allow 15 minutes for VPN to start");
+      plan.setCreated(true);
+      return true;
+
+    } catch (Exception e) {
+      LOG.error("Aborting creation of " + plan + ": " + e.getMessage());
+      plan.addError(e.getMessage());
+      RollbackResult rollbackResult = RollbackHelper.getInstance().rollback(awsCreds, vpnEndpoints, false);
+      for (RollbackResult.Outcome failure : rollbackResult.getFailures()) {
+        LOG.error("Unable to roll back " + failure);
       }
+      InventoryHelper.getInstance().invalidate(awsCreds, vpnEndpoints);
+      return false;
+    }
+  }
 
-      List<String> localIpRanges = new ArrayList();
-      localIpRanges.add(vpnEndpoint.getVpc().getCidrBlock());
-
-      // Create the IpPermissions
-      List<IpPermission> ipPermissions = new ArrayList();
-
-      IpPermission allTcpTraffic = new IpPermission();
-      allTcpTraffic.setIpRanges(localIpRanges);
-      allTcpTraffic.setIpProtocol("tcp");
-      allTcpTraffic.setFromPort(1);
-      allTcpTraffic.setToPort(65535);
-      ipPermissions.add(allTcpTraffic);
-
-      IpPermission allUdpTraffic = new IpPermission();
-      allUdpTraffic.setIpRanges(localIpRanges);
-      allUdpTraffic.setIpProtocol("udp");
-      allUdpTraffic.setFromPort(1);
-      allUdpTraffic.setToPort(65535);
-      ipPermissions.add(allUdpTraffic);
-
-      IpPermission allIcmpTraffic = new IpPermission();
-      allIcmpTraffic.setIpRanges(localIpRanges);
-      allIcmpTraffic.setIpProtocol("icmp");
-      allIcmpTraffic.setFromPort(-1);
-      allIcmpTraffic.setToPort(-1);
-      ipPermissions.add(allIcmpTraffic);
-
-      IpPermission ipPermUdp500 = new IpPermission();
-      ipPermUdp500.setIpProtocol("udp");
-      ipPermUdp500.setFromPort(500);
-      ipPermUdp500.setToPort(500);
-      ipPermUdp500.setIpRanges(ipRanges);
-      ipPermissions.add(ipPermUdp500);
-
-      IpPermission ipPermTcp500 = new IpPermission();
-      ipPermTcp500.setIpProtocol("tcp");
-      ipPermTcp500.setFromPort(500);
-      ipPermTcp500.setToPort(500);
-      ipPermTcp500.setIpRanges(ipRanges);
-      ipPermissions.add(ipPermTcp500);
-
-      IpPermission ipPermUdp4500 = new IpPermission();
-      ipPermUdp4500.setIpProtocol("udp");
-      ipPermUdp4500.setFromPort(4500);
-      ipPermUdp4500.setToPort(4500);
-      ipPermUdp4500.setIpRanges(ipRanges);
-      ipPermissions.add(ipPermUdp4500);
-
-      // Set permissions on security group
-      AuthorizeSecurityGroupIngressRequest authSecGrpIngressReq = new AuthorizeSecurityGroupIngressRequest();
-      authSecGrpIngressReq.setGroupId(securityGroupId);
-      authSecGrpIngressReq.setIpPermissions(ipPermissions);
-      LOG.debug("About to authorize SecurityGroup Ingress on : " + securityGroupId);
-
-      // Apply security group rules.  Need to retry a few times since API takes a bit of time to realize the SG really does exist
-      int retryCount = 0;
-      boolean done = false;
-      while (!done && retryCount < 3) {
-        try {
-          ec2Client.authorizeSecurityGroupIngress(authSecGrpIngressReq);
-          done = true;
-        } catch (Exception e) {
-          try {
-            Thread.sleep(5000);
-          } catch (Exception ie) {
-            // Eat it
-          }
-          if (retryCount > 3) {
-            LOG.debug("Exceeded retries.  Throwing exception");
-            throw new RuntimeException(e);
-          } else {
-            retryCount = retryCount + 1;
-            LOG.debug("Caught exception.  Going to retry request.  Exception: " + e.getMessage());
-          }
+
+  /**
+   * Creates the resources for all the endpoints. The work is modelled as a
+   * TaskGraph so each step starts as soon as the steps it really needs are
+   * done. Per endpoint the order is EIP, security group, instance launch and
+   * tags, then once the instances in the region are running: src/dest check,
+   * EIP association and routes. The only cross-endpoint edges are on the
+   * EIPs, which every security group and cloud-init script needs.
+   *
+   * @param vpc2vpcId
+   * @param vpnEndpoints
+   * @param taskExecutor executor the tasks run on
+   * @param waitExecutor executor the waits on instances run on
+   * @param regionLimiter limits the tasks calling EC2 in each region
+   * @throws Exception
+   */
+  private void provisionEndpoints(final String vpc2vpcId, final List<VPNEndpoint> vpnEndpoints,
+          ExecutorService taskExecutor, ExecutorService waitExecutor, RegionLimiter regionLimiter) throws Exception {
+
+    final long createdOn = System.currentTimeMillis();
+    TaskGraph taskGraph = new TaskGraph();
+
+    List<String> eipTasks = new ArrayList();
+    HashMap<Region, List<VPNEndpoint>> regionEndpoints = new HashMap();
+    for (int i = 0; i < vpnEndpoints.size(); i++) {
+      final VPNEndpoint vpnEndpoint = vpnEndpoints.get(i);
+      taskGraph.addLimitedTask("eip-" + i, vpnEndpoint.getRegion().getRegionName(), new TaskGraph.Task() {
+        public void run() {
+          allocateElasticIP(vpnEndpoint);
         }
+      });
+      eipTasks.add("eip-" + i);
+
+      List<VPNEndpoint> endpoints = regionEndpoints.get(vpnEndpoint.getRegion());
+      if (endpoints == null) {
+        endpoints = new ArrayList();
+        regionEndpoints.put(vpnEndpoint.getRegion(), endpoints);
       }
+      endpoints.add(vpnEndpoint);
     }
-  }
 
-  private void associatePublicIP(List<VPNEndpoint> vpnEndpoints) throws Exception {
-    for (VPNEndpoint vpnEndpoint : vpnEndpoints) {
-      ec2Client.setEndpoint(vpnEndpoint.getRegion().getEndpoint());
+    for (int i = 0; i < vpnEndpoints.size(); i++) {
+      final VPNEndpoint vpnEndpoint = vpnEndpoints.get(i);
 
-      Instance instance = vpnEndpoint.getInstance();
+      // Security group rules need the EIPs of all the other endpoints
+      taskGraph.addLimitedTask("sg-" + i, vpnEndpoint.getRegion().getRegionName(), new TaskGraph.Task() {
+        public void run() {
+          configureSecurityGroup(vpc2vpcId, vpnEndpoint, vpnEndpoints);
+        }
+      }, eipTasks);
 
-      // Associate Elastic IP (Public IP)
-      AssociateAddressRequest assocAddrReq = new AssociateAddressRequest();
-      assocAddrReq.setInstanceId(instance.getInstanceId());
-      assocAddrReq.setAllocationId(vpnEndpoint.getElasticIPAllocationId());
-      String associationId =
-              ec2Client.associateAddress(assocAddrReq).getAssociationId();
-      LOG.debug("Associated public IP " + vpnEndpoint.getElasticIPAddress() + " with instance " + instance);
+      // The cloud-init script also needs all the EIPs, which sg-i depends on
+      taskGraph.addLimitedTask("launch-" + i, vpnEndpoint.getRegion().getRegionName(), new TaskGraph.Task() {
+        public void run() throws Exception {
+          launchInstance(vpc2vpcId, vpnEndpoint, vpnEndpoints);
+        }
+      }, "sg-" + i);
 
+      // Tags can be applied as soon as the instance ID is known
+      taskGraph.addLimitedTask("tags-" + i, vpnEndpoint.getRegion().getRegionName(), new TaskGraph.Task() {
+        public void run() {
+          createTags(vpnEndpoint, createCommonTags(vpc2vpcId, vpnEndpoints, createdOn));
+        }
+      }, "launch-" + i);
     }
 
-  }
+    // Wait on all the instances of a region together
+    for (Region region : regionEndpoints.keySet()) {
+      final List<VPNEndpoint> endpoints = regionEndpoints.get(region);
+      List<String> launchTasks = new ArrayList();
+      for (VPNEndpoint endpoint : endpoints) {
+        launchTasks.add("launch-" + vpnEndpoints.indexOf(endpoint));
+      }
+      taskGraph.addWaitTask("wait-" + region.getRegionName(), new TaskGraph.Task() {
+        public void run() throws Exception {
+          waitOnInstances(endpoints);
+        }
+      }, launchTasks);
+    }
 
-  private void waitOnInstances(List<VPNEndpoint> vpnEndpoints) throws Exception {
-    int timeoutInMinutes = 5; // TODO: Remove hardcoding and put in config
-    boolean done = false;
-    long startTime = System.currentTimeMillis();
-    long endTime = startTime + (timeoutInMinutes * 60 * 1000);
+    for (int i = 0; i < vpnEndpoints.size(); i++) {
+      final VPNEndpoint vpnEndpoint = vpnEndpoints.get(i);
+      String regionName = vpnEndpoint.getRegion().getRegionName();
+
+      taskGraph.addLimitedTask("srcdest-" + i, regionName, new TaskGraph.Task() {
+        public void run() {
+          disableSrcDestCheck(vpnEndpoint);
+        }
+      }, "wait-" + regionName);
+
+      taskGraph.addLimitedTask("assoc-" + i, regionName, new TaskGraph.Task() {
+        public void run() {
+          associatePublicIP(vpnEndpoint);
+        }
+      }, "srcdest-" + i);
 
+      taskGraph.addLimitedTask("routes-" + i, regionName, new TaskGraph.Task() {
+        public void run() {
+          createAndAssociateRoutes(vpnEndpoint, vpnEndpoints);
+        }
+      }, "assoc-" + i);
+    }
+
+    taskGraph.execute(taskExecutor, waitExecutor, regionLimiter);
+  }
 
-    LOG.info(String.format("Waiting on EC2 VPN instances to launch..  This may take up to %d minutes", timeoutInMinutes));
-    while (!done && (System.currentTimeMillis() < endTime)) {
+  /**
+   * Checks if routes between the selected VPCs already exist, or if two of
+   * the connections would add routes to overlapping CIDR blocks in the same
+   * VPC
+   *
+   * @param plans
+   * @return
+   */
+  private boolean checkIfRoutesExist(List<ConnectionPlan> plans) {
+    boolean routesExist = false;
+    HashMap<String, CidrOverlapAnalyzer<ConnectionPlan>> vpcPlannedRoutes = new HashMap();
 
-      done = true;
+    for (ConnectionPlan plan : plans) {
+      List<VPNEndpoint> vpnEndpoints = plan.getVpnEndpoints();
       for (VPNEndpoint vpnEndpoint : vpnEndpoints) {
-        try {
-          ec2Client.setEndpoint(vpnEndpoint.getRegion().getEndpoint());
-          String instanceId = vpnEndpoint.getInstance().getInstanceId();
-          DescribeInstancesRequest descInstancesReq = new DescribeInstancesRequest().withInstanceIds(instanceId);
-          List<Reservation> reservations = ec2Client.describeInstances(descInstancesReq).getReservations();
-          Instance instance = reservations.get(0).getInstances().get(0);
-
-          LOG.debug("Waiting on instances: " + instance.getInstanceId() + " state: " + instance.getState());
-          if (!instance.getState().getName().equals("running")) {
-            done = false;
+        String vpcId = vpnEndpoint.getVpc().getVpcId();
+        CidrTrie<RouteTableIndex.TableRoute> destinations = routeTableIndex.getVpcRouteDestinations(vpcId);
+        CidrOverlapAnalyzer<ConnectionPlan> plannedRoutes = vpcPlannedRoutes.get(vpcId);
+        if (plannedRoutes == null) {
+          plannedRoutes = new CidrOverlapAnalyzer<ConnectionPlan>();
+          vpcPlannedRoutes.put(vpcId, plannedRoutes);
+        }
+
+        for (VPNEndpoint extVpnEndpoint : vpnEndpoints) {
+          if (!vpnEndpoint.equals(extVpnEndpoint)) {
+            // Routes less specific than the peer CIDR, e.g. the default route,
+            // do not conflict since the new route is preferred over them
+            Cidr extCidr = Cidr.parse(extVpnEndpoint.getVpc().getCidrBlock());
+            for (RouteTableIndex.TableRoute tableRoute : destinations.getContainedBy(extCidr)) {
+              routesExist = true;
+              String msg = "A route to " + tableRoute.getRoute().getDestinationCidrBlock() + " in " + tableRoute.getRouteTableId()
+                      + " already covers traffic from " + vpnEndpoint.getVpc().getCidrBlock() + " to " + extVpnEndpoint.getVpc().getCidrBlock();
+              LOG.error(msg);
+              plan.addError(msg);
+            }
+            plannedRoutes.add(extCidr, plan);
           }
-        } catch (Exception e) {
-          LOG.debug("Ignoring exception: " + e.getMessage());
-          e.printStackTrace();
         }
       }
-      if (!done) {
-        Thread.sleep(15 * 1000);
+    }
+
+    for (Map.Entry<String, CidrOverlapAnalyzer<ConnectionPlan>> entry : vpcPlannedRoutes.entrySet()) {
+      for (CidrOverlapAnalyzer.Overlap<ConnectionPlan> overlap : entry.getValue().findOverlaps()) {
+        routesExist = true;
+        String msg = "Connections from " + overlap.getOuter().getSource() + " and " + overlap.getInner().getSource()
+                + " both route " + overlap.getInnerCidr() + " in " + entry.getKey();
+        LOG.error(msg);
+        overlap.getOuter().addError(msg);
+        overlap.getInner().addError(msg);
       }
     }
 
-    LOG.debug("startTime: " + startTime);
-    LOG.debug("endTime: " + endTime);
-    LOG.debug("now: " + System.currentTimeMillis());
+    return routesExist;
+  }
 
+  /**
+   * Create routes
+   *
+   * @param vpnEndpoint
+   * @param vpnEndpoints
+   */
+  private void createAndAssociateRoutes(VPNEndpoint vpnEndpoint, List<VPNEndpoint> vpnEndpoints) {
+    AmazonEC2Client ec2Client = getEC2Client(vpnEndpoint.getRegion());
+    List<RouteTable> routeTables = routeTableIndex.getVpcRouteTables(vpnEndpoint.getVpc().getVpcId());
+
+    for (VPNEndpoint extVpnEndpoint : vpnEndpoints) {
+      if (!vpnEndpoint.equals(extVpnEndpoint)) {
+        for (RouteTable routeTable : routeTables) {
+          // Create the route
+          CreateRouteRequest createRouteReq = new CreateRouteRequest();
+          createRouteReq.setDestinationCidrBlock(extVpnEndpoint.getVpc().getCidrBlock());
+          createRouteReq.setInstanceId(vpnEndpoint.getInstance().getInstanceId());
+          createRouteReq.setRouteTableId(routeTable.getRouteTableId());
+          LOG.debug("About to create a route in " + vpnEndpoint.getVpc().getVpcId() + " to " + extVpnEndpoint.getVpc().getVpcId() + " in route table: " + routeTable.getRouteTableId());
+          ec2Client.createRoute(createRouteReq);
+          LOG.debug("Created route in " + vpnEndpoint.getVpc().getVpcId() + " to " + extVpnEndpoint.getVpc().getVpcId() + " in route table: " + routeTable.getRouteTableId());
+        }
+      }
+    }
   }
 
-  // Disable Src/Dest Check
-  private void disableSrcDestCheck(List<VPNEndpoint> vpnEndpoints) {
+  private void configureSecurityGroup(String vpc2vpcId, VPNEndpoint vpnEndpoint, List<VPNEndpoint> vpnEndpoints) {
+    AmazonEC2Client ec2Client = getEC2Client(vpnEndpoint.getRegion());
+
+    String securityGroupName = vpc2vpcId;
+
+    // Create Security Group
+    CreateSecurityGroupRequest createSecGrpReq = new CreateSecurityGroupRequest();
+    createSecGrpReq.setGroupName(securityGroupName);
+    createSecGrpReq.setDescription("vpc2vpc Security Group");
+    createSecGrpReq.setVpcId(vpnEndpoint.getVpc().getVpcId());
+    LOG.debug("Creating security group in " + vpnEndpoint.getRegion().getRegionName());
+    CreateSecurityGroupResult createSecGrpResult = ec2Client.createSecurityGroup(createSecGrpReq);
+    String securityGroupId = createSecGrpResult.getGroupId();
+    LOG.debug("Created security group " + securityGroupId + " in " + vpnEndpoint.getRegion().getRegionName());
+
+    // Set the endpoint's security group
+    vpnEndpoint.setSecurityGroupId(securityGroupId);
+
+    // Get a list of external endpoint's EIPs
+    List<String> ipRanges = new ArrayList();
+    for (VPNEndpoint extVpnEndpoint : vpnEndpoints) {
+      if (!vpnEndpoint.equals(extVpnEndpoint)) {
+        ipRanges.add(extVpnEndpoint.getElasticIPAddress() + "/32");
+      }
+    }
 
-    for (VPNEndpoint vpnEndpoint : vpnEndpoints) {
-      ec2Client.setEndpoint(vpnEndpoint.getRegion().getEndpoint());
-
-      Instance instance = vpnEndpoint.getInstance();
-
-      List<NetworkInterface> networkInterfaces = ec2Client.describeNetworkInterfaces().getNetworkInterfaces();
-      for (NetworkInterface nic : networkInterfaces) {
-        if (nic.getAttachment().getInstanceId().equals(instance.getInstanceId())) {
-          ModifyNetworkInterfaceAttributeRequest modifyNicAttribute = new ModifyNetworkInterfaceAttributeRequest();
-          modifyNicAttribute.setNetworkInterfaceId(nic.getNetworkInterfaceId());
-          modifyNicAttribute.setSourceDestCheck(false);
-          ec2Client.modifyNetworkInterfaceAttribute(modifyNicAttribute);
-          LOG.debug("Disabled Src/Dest check on " + instance.getInstanceId());
+    List<String> localIpRanges = new ArrayList();
+    localIpRanges.add(vpnEndpoint.getVpc().getCidrBlock());
+
+    // Create the IpPermissions
+    List<IpPermission> ipPermissions = new ArrayList();
+
+    IpPermission allTcpTraffic = new IpPermission();
+    allTcpTraffic.setIpRanges(localIpRanges);
+    allTcpTraffic.setIpProtocol("tcp");
+    allTcpTraffic.setFromPort(1);
+    allTcpTraffic.setToPort(65535);
+    ipPermissions.add(allTcpTraffic);
+
+    IpPermission allUdpTraffic = new IpPermission();
+    allUdpTraffic.setIpRanges(localIpRanges);
+    allUdpTraffic.setIpProtocol("udp");
+    allUdpTraffic.setFromPort(1);
+    allUdpTraffic.setToPort(65535);
+    ipPermissions.add(allUdpTraffic);
+
+    IpPermission allIcmpTraffic = new IpPermission();
+    allIcmpTraffic.setIpRanges(localIpRanges);
+    allIcmpTraffic.setIpProtocol("icmp");
+    allIcmpTraffic.setFromPort(-1);
+    allIcmpTraffic.setToPort(-1);
+    ipPermissions.add(allIcmpTraffic);
+
+    IpPermission ipPermUdp500 = new IpPermission();
+    ipPermUdp500.setIpProtocol("udp");
+    ipPermUdp500.setFromPort(500);
+    ipPermUdp500.setToPort(500);
+    ipPermUdp500.setIpRanges(ipRanges);
+    ipPermissions.add(ipPermUdp500);
+
+    IpPermission ipPermTcp500 = new IpPermission();
+    ipPermTcp500.setIpProtocol("tcp");
+    ipPermTcp500.setFromPort(500);
+    ipPermTcp500.setToPort(500);
+    ipPermTcp500.setIpRanges(ipRanges);
+    ipPermissions.add(ipPermTcp500);
+
+    IpPermission ipPermUdp4500 = new IpPermission();
+    ipPermUdp4500.setIpProtocol("udp");
+    ipPermUdp4500.setFromPort(4500);
+    ipPermUdp4500.setToPort(4500);
+    ipPermUdp4500.setIpRanges(ipRanges);
+    ipPermissions.add(ipPermUdp4500);
+
+    // Set permissions on security group
+    AuthorizeSecurityGroupIngressRequest authSecGrpIngressReq = new AuthorizeSecurityGroupIngressRequest();
+    authSecGrpIngressReq.setGroupId(securityGroupId);
+    authSecGrpIngressReq.setIpPermissions(ipPermissions);
+    LOG.debug("About to authorize SecurityGroup Ingress on : " + securityGroupId);
+
+    // Apply security group rules.  Need to retry a few times since API takes a bit of time to realize the SG really does exist
+    int retryCount = 0;
+    boolean done = false;
+    while (!done && retryCount < 3) {
+      try {
+        ec2Client.authorizeSecurityGroupIngress(authSecGrpIngressReq);
+        done = true;
+      } catch (Exception e) {
+        try {
+          Thread.sleep(5000);
+        } catch (Exception ie) {
+          // Eat it
         }
+        if (retryCount > 3) {
+          LOG.debug("Exceeded retries.  Throwing exception");
+          throw new RuntimeException(e);
+        } else {
+          retryCount = retryCount + 1;
+          LOG.debug("Caught exception.  Going to retry request.  Exception: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  private void associatePublicIP(VPNEndpoint vpnEndpoint) {
+    AmazonEC2Client ec2Client = getEC2Client(vpnEndpoint.getRegion());
+
+    Instance instance = vpnEndpoint.getInstance();
+
+    // Associate Elastic IP (Public IP)
+    AssociateAddressRequest assocAddrReq = new AssociateAddressRequest();
+    assocAddrReq.setInstanceId(instance.getInstanceId());
+    assocAddrReq.setAllocationId(vpnEndpoint.getElasticIPAllocationId());
+    String associationId =
+            ec2Client.associateAddress(assocAddrReq).getAssociationId();
+    LOG.debug("Associated public IP " + vpnEndpoint.getElasticIPAddress() + " with instance " + instance);
+  }
+
+  private void waitOnInstances(List<VPNEndpoint> vpnEndpoints) throws Exception {
+    InstanceWaiter instanceWaiter = InstanceWaiter.getInstance();
+    long timeoutMillis = instanceWaiter.getRunningTimeoutMillis();
+
+    LOG.info(String.format("Waiting on EC2 VPN instances in %s to launch..  This may take up to %d minutes",
+            vpnEndpoints.get(0).getRegion().getRegionName(), Math.max(1, timeoutMillis / (60 * 1000))));
+    if (!instanceWaiter.waitForState(awsCreds, vpnEndpoints, InstanceWaiter.STATE_RUNNING, timeoutMillis)) {
+      throw new RuntimeException("Timed out waiting on EC2 VPN instances to launch");
+    }
+  }
+
+  // Disable Src/Dest Check
+  private void disableSrcDestCheck(VPNEndpoint vpnEndpoint) {
+    AmazonEC2Client ec2Client = getEC2Client(vpnEndpoint.getRegion());
+
+    Instance instance = vpnEndpoint.getInstance();
+
+    List<NetworkInterface> networkInterfaces = ec2Client.describeNetworkInterfaces().getNetworkInterfaces();
+    for (NetworkInterface nic : networkInterfaces) {
+      if (nic.getAttachment().getInstanceId().equals(instance.getInstanceId())) {
+        ModifyNetworkInterfaceAttributeRequest modifyNicAttribute = new ModifyNetworkInterfaceAttributeRequest();
+        modifyNicAttribute.setNetworkInterfaceId(nic.getNetworkInterfaceId());
+        modifyNicAttribute.setSourceDestCheck(false);
+        ec2Client.modifyNetworkInterfaceAttribute(modifyNicAttribute);
+        LOG.debug("Disabled Src/Dest check on " + instance.getInstanceId());
       }
     }
   }
 
-  private void createTags(List<VPNEndpoint> vpnEndpoints) {
+  private List<Tag> createCommonTags(String vpc2vpcId, List<VPNEndpoint> vpnEndpoints, long createdOn) {
 
     // Setup Tags
     List<Tag> commonTags = new ArrayList();
     commonTags.add(new Tag("Name", "vpc2vpc"));
     commonTags.add(new Tag("vpc2vpc:id", vpc2vpcId));
-    commonTags.add(new Tag("vpc2vpc:created_on", Long.valueOf(System.currentTimeMillis()).toString()));
+    commonTags.add(new Tag("vpc2vpc:created_on", Long.valueOf(createdOn).toString()));
 
     List<String> vpcIdList = new ArrayList();
     List<String> subnetIdList = new ArrayList();
     List<String> publicIpList = new ArrayList();
 
     for (VPNEndpoint vpnEndpoint : vpnEndpoints) {
-      ec2Client.setEndpoint(vpnEndpoint.getRegion().getEndpoint());
-
       Vpc vpc = vpnEndpoint.getVpc();
       Subnet subnet = vpnEndpoint.getSubnet();
       vpcIdList.add(vpc.getVpcId());
@@ -492,69 +814,65 @@ public class CreateConnection extends BaseAction {
     }
     commonTags.add(new Tag("vpc2vpc:public_ip_list", publicIps));
 
-    for (VPNEndpoint vpnEndpoint : vpnEndpoints) {
-      ec2Client.setEndpoint(vpnEndpoint.getRegion().getEndpoint());
-
-      // Create a new list of tags including common tags and endpoint specific tags
-      List<Tag> tags = new ArrayList();
-      tags.addAll(commonTags);
-      tags.add(new Tag("vpc2vpc:public_ip", vpnEndpoint.getElasticIPAddress()));
-
-      // Create tags
-      List<String> resourceIds = new ArrayList();
-      resourceIds.add(vpnEndpoint.getInstance().getInstanceId());
-      CreateTagsRequest createTagsRequest = new CreateTagsRequest(resourceIds, tags);
-      LOG.debug("About to create tags: " + createTagsRequest);
-      ec2Client.createTags(createTagsRequest);
-      LOG.debug("Created tags: " + createTagsRequest);
-    }
+    return commonTags;
   }
 
-  private void launchInstances(List<VPNEndpoint> vpnEndpoints) throws Exception {
+  private void createTags(VPNEndpoint vpnEndpoint, List<Tag> commonTags) {
+    AmazonEC2Client ec2Client = getEC2Client(vpnEndpoint.getRegion());
+
+    // Create a new list of tags including common tags and endpoint specific tags
+    List<Tag> tags = new ArrayList();
+    tags.addAll(commonTags);
+    tags.add(new Tag("vpc2vpc:public_ip", vpnEndpoint.getElasticIPAddress()));
+
+    // Create tags
+    List<String> resourceIds = new ArrayList();
+    resourceIds.add(vpnEndpoint.getInstance().getInstanceId());
+    CreateTagsRequest createTagsRequest = new CreateTagsRequest(resourceIds, tags);
+    LOG.debug("About to create tags: " + createTagsRequest);
+    ec2Client.createTags(createTagsRequest);
+    LOG.debug("Created tags: " + createTagsRequest);
+  }
 
-    ApplicationConfig appConfig = ApplicationConfig.getInstance();
+  private void launchInstance(String vpc2vpcId, VPNEndpoint vpnEndpoint, List<VPNEndpoint> vpnEndpoints) throws Exception {
+    Region region = vpnEndpoint.getRegion();
+    AmazonEC2Client ec2Client = getEC2Client(region);
 
-    for (VPNEndpoint vpnEndpoint : vpnEndpoints) {
-      Region region = vpnEndpoint.getRegion();
-      ec2Client.setEndpoint(region.getEndpoint());
-
-      // Get the AMI for the region
-      String amiKey = "ami." + region.getRegionName();
-      String amiId = appConfig.get(amiKey);
-      if (amiId == null) {
-        String msg = "Unable to find AMI in " + region.getRegionName();
-        LOG.error(msg);
-        throw new RuntimeException(msg);
-      }
-
-      // Get the security group for the instance
-      String securityGroupId = vpnEndpoint.getSecurityGroupId();
-      List<String> securityGroupIds = new ArrayList();
-      securityGroupIds.add(securityGroupId);
-
-      // Setup the instance request object
-      LOG.debug("Setting up RunInstancesRequest for instance in " + vpnEndpoint.getVpc().getCidrBlock() + " - " + region.getEndpoint());
-      RunInstancesRequest runInstancesRequest = new RunInstancesRequest();
-      runInstancesRequest.setMinCount(1);
-      runInstancesRequest.setMaxCount(1);
-      runInstancesRequest.setImageId(amiId);
-      runInstancesRequest.setSecurityGroupIds(securityGroupIds);
-      runInstancesRequest.setInstanceType(InstanceType.T1Micro); // TODO: Make this configurable
-      runInstancesRequest.setSubnetId(vpnEndpoint.getSubnet().getSubnetId());
-      runInstancesRequest.setUserData(generateCloudInitScript(vpnEndpoint, vpnEndpoints));
-      //runInstancesRequest.setKeyName("amazon"); // TODO: Remove this or make this configurable
-
-      // Launch the instance
-      LOG.debug("Issuing runInstances with: " + runInstancesRequest);
-      RunInstancesResult result = ec2Client.runInstances(runInstancesRequest);
-      Reservation reservation = result.getReservation();
-      Instance instance = reservation.getInstances().get(0);  // Should be just one
-      vpnEndpoint.setInstance(instance);
-      LOG.debug("Launched instance: " + instance);
+    // Get the AMI for the region
+    String amiId = ApplicationConfig.getInstance().getAmi(region.getRegionName());
+    if (amiId == null) {
+      String msg = "Unable to find AMI in " + region.getRegionName();
+      LOG.error(msg);
+      throw new RuntimeException(msg);
     }
+
+    // Get the security group for the instance
+    String securityGroupId = vpnEndpoint.getSecurityGroupId();
+    List<String> securityGroupIds = new ArrayList();
+    securityGroupIds.add(securityGroupId);
+
+    // Setup the instance request object
+    LOG.debug("Setting up RunInstancesRequest for instance in " + vpnEndpoint.getVpc().getCidrBlock() + " - " + region.getEndpoint());
+    RunInstancesRequest runInstancesRequest = new RunInstancesRequest();
+    runInstancesRequest.setMinCount(1);
+    runInstancesRequest.setMaxCount(1);
+    runInstancesRequest.setImageId(amiId);
+    runInstancesRequest.setSecurityGroupIds(securityGroupIds);
+    runInstancesRequest.setInstanceType(instanceType);
+    runInstancesRequest.setSubnetId(vpnEndpoint.getSubnet().getSubnetId());
+    runInstancesRequest.setUserData(generateCloudInitScript(vpc2vpcId, vpnEndpoint, vpnEndpoints));
+    //runInstancesRequest.setKeyName("amazon"); // TODO: Remove this or make this configurable
+
+    // Launch the instance
+    LOG.debug("Issuing runInstances with: " + runInstancesRequest);
+    RunInstancesResult result = ec2Client.runInstances(runInstancesRequest);
+    Reservation reservation = result.getReservation();
+    Instance instance = reservation.getInstances().get(0);  // Should be just one
+    vpnEndpoint.setInstance(instance);
+    LOG.debug("Launched instance: " + instance);
   }
 
-  private String generateCloudInitScript(VPNEndpoint originVpnEndpoint, List<VPNEndpoint> vpnEndpoints) throws Exception {
+  private String generateCloudInitScript(String vpc2vpcId, VPNEndpoint originVpnEndpoint, List<VPNEndpoint> vpnEndpoints) throws Exception {
 
     InputStream cloudInitTmplInputStream = this.getClass().getClassLoader().getResourceAsStream(CLOUD_INIT_TEMPLATE);
     byte[] cloudInitTmplBytes = IOUtils.toByteArray(cloudInitTmplInputStream);
@@ -589,21 +907,17 @@ public class CreateConnection extends BaseAction {
   }
 
   /**
-   * Allocate Elastic IPs as needed and assign it to the endpoints. If there are
-   * any errors, roll back by releasing all allocated IPs if possible
+   * Allocate an Elastic IP and assign it to the endpoint
    *
-   * @param vpnEndpoints
+   * @param vpnEndpoint
    */
-  private void allocateElasticIPs(List<VPNEndpoint> vpnEndpoints) {
-
-    for (VPNEndpoint vpnEndpoint : vpnEndpoints) {
-      ec2Client.setEndpoint(vpnEndpoint.getRegion().getEndpoint());
-      AllocateAddressResult allocAddrResult = ec2Client.allocateAddress(new AllocateAddressRequest().withDomain(DomainType.Vpc));
-      String publicIp = allocAddrResult.getPublicIp();
-      vpnEndpoint.setElasticIPAddress(publicIp);
-      vpnEndpoint.setElasticIPAllocationId(allocAddrResult.getAllocationId());
-      LOG.debug("Allocated elastic IP " + publicIp + " in " + vpnEndpoint.getRegion().getEndpoint());
-    }
+  private void allocateElasticIP(VPNEndpoint vpnEndpoint) {
+    AmazonEC2Client ec2Client = getEC2Client(vpnEndpoint.getRegion());
+    AllocateAddressResult allocAddrResult = ec2Client.allocateAddress(new AllocateAddressRequest().withDomain(DomainType.Vpc));
+    String publicIp = allocAddrResult.getPublicIp();
+    vpnEndpoint.setElasticIPAddress(publicIp);
+    vpnEndpoint.setElasticIPAllocationId(allocAddrResult.getAllocationId());
+    LOG.debug("Allocated elastic IP " + publicIp + " in " + vpnEndpoint.getRegion().getEndpoint());
   }
 
   /**
@@ -625,7 +939,7 @@ public class CreateConnection extends BaseAction {
     List<RouteTable> publicRouteTables = new ArrayList();
 
     // Get the route tables that have a default route to an IGW
-    List<RouteTable> vpcRouteTables = vpcIdRouteTableMap.get(vpc.getVpcId());
+    List<RouteTable> vpcRouteTables = routeTableIndex.getVpcRouteTables(vpc.getVpcId());
     for (RouteTable routeTable : vpcRouteTables) {
       LOG.debug(routeTable);
       for (Route route : routeTable.getRoutes()) {
@@ -645,7 +959,7 @@ public class CreateConnection extends BaseAction {
     // Get a list of public subnets
     for (RouteTable routeTable : publicRouteTables) {
       for (RouteTableAssociation assoc : routeTable.getAssociations()) {
-        Subnet subnet = subnetIdMap.get(assoc.getSubnetId());
+        Subnet subnet = inventory.getSubnet(assoc.getSubnetId());
         if (!publicSubnets.contains(subnet)) {
           publicSubnets.add(subnet);
           LOG.debug("Public Subnet: " + subnet);
@@ -685,85 +999,35 @@ public class CreateConnection extends BaseAction {
   }
 
   /**
-   * Sets up some lists and maps that are used through out this class to lookup
-   * VPCs
+   * Takes the inventory snapshot that is used through out this class to
+   * lookup VPCs, subnets and route tables
    */
-  private void populateLookupData() {
-
-    HashMap<Region, List> regionVpcMap = VPCHelper.getInstance().listRegionVpcs(awsCreds);
-    HashMap<Region, List> regionSubnetMap = VPCHelper.getInstance().listRegionSubnets(awsCreds);
-    HashMap<Region, List> regionRouteTableMap = VPCHelper.getInstance().listRegionRouteTables(awsCreds);
-
-    vpcs = new ArrayList();
-    for (List<Vpc> regionVpcs : regionVpcMap.values()) {
-      vpcs.addAll(regionVpcs);
-    }
-
-    subnets = new ArrayList();
-    for (List<Subnet> regionSubnets : regionSubnetMap.values()) {
-      subnets.addAll(regionSubnets);
-    }
-
-    vpcIdRegionMap = new HashMap();
-    for (Region region : regionVpcMap.keySet()) {
-      List<Vpc> regionVpcs = regionVpcMap.get(region);
-      for (Vpc vpc : regionVpcs) {
-        vpcIdRegionMap.put(vpc.getVpcId(), region);
-      }
-    }
-
-    subnetIdRegionMap = new HashMap();
-    for (Region region : regionSubnetMap.keySet()) {
-      List<Subnet> regionSubnets = regionSubnetMap.get(region);
-      for (Subnet subnet : regionSubnets) {
-        subnetIdRegionMap.put(subnet.getSubnetId(), region);
-      }
-    }
-
-    vpcIdMap = new HashMap();
-    for (Vpc vpc : vpcs) {
-      vpcIdMap.put(vpc.getVpcId(), vpc);
-    }
-
-    vpcCidrMap = new HashMap();
-    for (Vpc vpc : vpcs) {
-      String cidrBlock = vpc.getCidrBlock();
-      List<Vpc> cidrVpcs = vpcCidrMap.get(cidrBlock);
-      if (cidrVpcs == null) {
-        cidrVpcs = new ArrayList();
-        vpcCidrMap.put(cidrBlock, cidrVpcs);
-      }
-      cidrVpcs.add(vpc);
-    }
-
-    subnetIdMap = new HashMap();
-    for (Subnet subnet : subnets) {
-      subnetIdMap.put(subnet.getSubnetId(), subnet);
-    }
+  private void populateLookupData(boolean refresh) {
+    inventory = InventoryHelper.getInstance().takeSnapshot(awsCreds, regions, refresh);
+  }
 
-    subnetCidrMap = new HashMap();
-    for (Subnet subnet : subnets) {
-      String cidrBlock = subnet.getCidrBlock();
-      List<Subnet> cidrSubnets = subnetCidrMap.get(cidrBlock);
-      if (cidrSubnets == null) {
-        cidrSubnets = new ArrayList();
-        subnetCidrMap.put(cidrBlock, cidrSubnets);
+  /**
+   * Reads the current route tables of the endpoint VPCs, with one filtered
+   * describeRouteTables call per region. The inventory may come from the
+   * local cache, so the route checks and route creation use this index
+   * instead.
+   *
+   * @param vpnEndpoints
+   */
+  private void loadRouteTables(List<VPNEndpoint> vpnEndpoints) {
+    HashMap<Region, Set<String>> regionVpcIds = new HashMap();
+    for (VPNEndpoint vpnEndpoint : vpnEndpoints) {
+      Set<String> vpcIds = regionVpcIds.get(vpnEndpoint.getRegion());
+      if (vpcIds == null) {
+        vpcIds = new HashSet();
+        regionVpcIds.put(vpnEndpoint.getRegion(), vpcIds);
       }
-      cidrSubnets.add(subnet);
+      vpcIds.add(vpnEndpoint.getVpc().getVpcId());
     }
 
-    vpcIdRouteTableMap = new HashMap();
-    for (Region region : regionRouteTableMap.keySet()) {
-      List<RouteTable> routeTables = regionRouteTableMap.get(region);
-      for (RouteTable routeTable : routeTables) {
-        String vpcId = routeTable.getVpcId();
-        List<RouteTable> vpcRouteTables = vpcIdRouteTableMap.get(vpcId);
-        if (vpcRouteTables == null) {
-          vpcRouteTables = new ArrayList();
-          vpcIdRouteTableMap.put(routeTable.getVpcId(), vpcRouteTables);
-        }
-        vpcRouteTables.add(routeTable);
-      }
+    routeTableIndex = new RouteTableIndex(Collections.<RouteTable>emptyList());
+    for (Map.Entry<Region, Set<String>> entry : regionVpcIds.entrySet()) {
+      routeTableIndex.refreshVpcs(getEC2Client(entry.getKey()), entry.getValue());
     }
   }
 
@@ -785,29 +1049,31 @@ public class CreateConnection extends BaseAction {
       }
     }
 
-    HashMap<String, VPNEndpoint> endpointCidrMap = new HashMap();
+    CidrOverlapAnalyzer<String> overlapAnalyzer = new CidrOverlapAnalyzer<String>();
     for (VPNEndpoint endpoint : vpnEndpoints) {
-      if (endpointCidrMap.containsKey(endpoint.getVpc().getCidrBlock())) {
-        return true;
-      } else {
-        endpointCidrMap.put(endpoint.getVpc().getCidrBlock(), endpoint);
-      }
+      overlapAnalyzer.add(Cidr.parse(endpoint.getVpc().getCidrBlock()), endpoint.getVpc().getVpcId());
     }
 
-    return false;
+    List<CidrOverlapAnalyzer.Overlap<String>> overlaps = overlapAnalyzer.findOverlaps();
+    for (CidrOverlapAnalyzer.Overlap<String> overlap : overlaps) {
+      LOG.error(overlap);
+    }
+
+    return !overlaps.isEmpty();
   }
 
+
   /**
    * Creates a VPNEndpoint object from the user provided input
    *
    * @param endpointArg
    * @return
    */
-  private VPNEndpoint getVpnEndpoint(String endpointArg) {
+  private VPNEndpoint getVpnEndpoint(EndpointSpec endpointArg) {
     VPNEndpoint endpoint = new VPNEndpoint();
 
-    if (isVpcId(endpointArg)) {
-      Vpc vpc = vpcIdMap.get(endpointArg);
+    if (endpointArg.getType() == EndpointSpec.Type.VPC_ID) {
+      Vpc vpc = inventory.getVpc(endpointArg.getText());
       if (vpc == null) {
         LOG.error("Unable to find a VPC for ID " + endpointArg);
         return null;
@@ -816,47 +1082,53 @@ public class CreateConnection extends BaseAction {
 
       LOG.debug(vpc + " matched VPC id " + endpointArg);
 
-    } else if (isSubnetId(endpointArg)) {
-      Subnet subnet = subnetIdMap.get(endpointArg);
+    } else if (endpointArg.getType() == EndpointSpec.Type.SUBNET_ID) {
+      Subnet subnet = inventory.getSubnet(endpointArg.getText());
       if (subnet == null) {
         LOG.error("Unable to find Subnet for ID " + endpointArg);
         return null;
       }
       endpoint.setSubnet(subnet);
-      endpoint.setVpc(vpcIdMap.get(subnet.getVpcId()));
+      endpoint.setVpc(inventory.getVpc(subnet.getVpcId()));
 
       LOG.debug(subnet + " matched Subnet id " + endpointArg);
 
-    } else if (isCidr(endpointArg)) {
-
-      List<Subnet> subnetsMatchingCidr = subnetCidrMap.get(endpointArg);
-      if (subnetsMatchingCidr != null) {
-        for (Subnet subnet : subnetsMatchingCidr) {
-          LOG.debug(subnet + " matches CIDR " + endpointArg);
-        }
-      }
-
-      if (subnetsMatchingCidr != null && subnetsMatchingCidr.size() > 1) {
-        LOG.error("More than one subnet matches the CIDR " + endpointArg + ".  Please specify the Subnet/VPC by ID");
+    } else if (endpointArg.getType() == EndpointSpec.Type.CIDR) {
+
+      // A subnet or VPC with exactly the given block wins. Otherwise the
+      // block must lie in a single VPC, so an address such as a.b.c.d/32 is
+      // never matched to a VPC the user did not mean, and within that VPC the
+      // most specific subnet containing it is used.
+      Cidr cidr = endpointArg.getCidr();
+      List<Subnet> exactSubnets = inventory.getSubnetsByCidr(cidr);
+      List<Vpc> exactVpcs = inventory.getVpcsByCidr(cidr);
+      if (exactSubnets.size() > 1 || (exactSubnets.isEmpty() && exactVpcs.size() > 1)) {
+        LOG.error("More than one Subnet/VPC has the CIDR " + endpointArg + ".  Please specify the Subnet/VPC by ID");
         return null;
-      } else if (subnetsMatchingCidr != null) {
-        endpoint.setSubnet(subnetsMatchingCidr.get(0));
-        endpoint.setVpc(vpcIdMap.get(endpoint.getSubnet().getVpcId()));
-      }
-
-      List<Vpc> vpcsMatchingCidr = vpcCidrMap.get(endpointArg);
-      if (vpcsMatchingCidr != null) {
+      } else if (!exactSubnets.isEmpty()) {
+        endpoint.setSubnet(exactSubnets.get(0));
+        endpoint.setVpc(inventory.getVpc(endpoint.getSubnet().getVpcId()));
+      } else if (!exactVpcs.isEmpty()) {
+        endpoint.setVpc(exactVpcs.get(0));
+      } else {
+        List<Vpc> vpcsMatchingCidr = inventory.getVpcsContaining(cidr);
         for (Vpc vpc : vpcsMatchingCidr) {
-          LOG.debug(vpc + " matches CIDR " + endpointArg);
+          LOG.debug(vpc + " contains CIDR " + endpointArg);
         }
-      }
 
-      if (vpcsMatchingCidr != null && vpcsMatchingCidr.size() > 1) {
-        LOG.error("More than one VPC matches the CIDR " + endpointArg + ".  Please specify the Subnet/VPC by ID");
-
-        return null;
-      } else if (vpcsMatchingCidr != null) {
-        endpoint.setVpc(vpcsMatchingCidr.get(0));
+        if (vpcsMatchingCidr.size() > 1) {
+          LOG.error("The CIDR " + endpointArg + " lies in more than one VPC.  Please specify the Subnet/VPC by ID");
+          return null;
+        } else if (!vpcsMatchingCidr.isEmpty()) {
+          Vpc vpc = vpcsMatchingCidr.get(0);
+          endpoint.setVpc(vpc);
+          for (Subnet subnet : inventory.getSubnetsContaining(cidr)) {
+            if (subnet.getVpcId().equals(vpc.getVpcId())) {
+              LOG.debug(subnet + " contains CIDR " + endpointArg);
+              endpoint.setSubnet(subnet);
+            }
+          }
+        }
       }
 
       if (endpoint.getVpc() == null) {
@@ -868,41 +1140,8 @@ public class CreateConnection extends BaseAction {
       return null;
     }
 
-    endpoint.setRegion(vpcIdRegionMap.get(endpoint.getVpc().getVpcId()));
+    endpoint.setRegion(inventory.getVpcRegion(endpoint.getVpc().getVpcId()));
 
     return endpoint;
   }
-
-  /**
-   * Checks if string is a CIDR
-   *
-   * @param cidrNotation
-   * @return
-   */
-  private boolean isCidr(String cidrNotation) {
-    String ipv4Cidr = "(((2(5[0-5]|[0-4][0-9])|[01]?[0-9][0-9]?)\\.){3}(2(5[0-5]|[0-4][0-9])|[01]?[0-9][0-9]?)(/(3[012]|[12]?[0-9])))";
-    return cidrNotation.matches(ipv4Cidr);
-  }
-
-  /**
-   * Checks if string is a subnet ID
-   *
-   * @param subnetId
-   * @return
-   */
-  private boolean isSubnetId(String subnetId) {
-    String subnetRegex = "^subnet-[a-zA-Z0-9]*";
-    return subnetId.matches(subnetRegex);
-  }
-
-  /**
-   * Checks if string is a VPC ID
-   *
-   * @param vpcId
-   * @return
-   */
-  public boolean isVpcId(String vpcId) {
-    String vpcRegex = "^vpc-[a-zA-Z0-9]*";
-    return vpcId.matches(vpcRegex);
-  }
 }
@@ -3,7 +3,10 @@ package vpc2vpc;
 import com.amazonaws.auth.AWSCredentials;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.HelpFormatter;
@@ -31,8 +34,12 @@ public class DeleteConnection extends BaseAction {
 
     Options options = new Options();
     options.addOption("h", "help", false, "display the help message");
-    options.addOption("i", "vpc2vpcId", true, "ID of the vpc2vpc connection to be deleted");
+    options.addOption("i", "vpc2vpcId", true, "IDs of the vpc2vpc connections to be deleted, separated by commas or spaces");
+    options.addOption("a", "all", false, "delete all vpc2vpc connections");
+    options.addOption("o", "older-than", true, "only delete connections created more than this long ago (e.g. 90m, 12h, 7d)");
     options.addOption("v", "verbose", false, "be extra verbose");
+    options.addOption("r", "refresh", false, "ignore the local inventory cache");
+    options.addOption(null, "regions", true, "regions to use, separated by commas (default regions.allow)");
 
     CommandLineParser parser = new PosixParser();
     CommandLine cmd = null;
@@ -44,38 +51,201 @@ public class DeleteConnection extends BaseAction {
       System.exit(1);
     }
 
-    String vpc2vpcId = null;
-    if (cmd != null) {
-      if (cmd.hasOption("v")) {
-        LogManager.getRootLogger().setLevel(Level.DEBUG);
-      }
-
-      vpc2vpcId = cmd.getOptionValue("i");
+    if (cmd != null && cmd.hasOption("v")) {
+      LogManager.getRootLogger().setLevel(Level.DEBUG);
     }
 
-    if (vpc2vpcId == null || cmd == null || cmd.hasOption("h")) {
+    if (cmd == null || cmd.hasOption("h")
+            || (!cmd.hasOption("i") && !cmd.hasOption("a") && !cmd.hasOption("o"))) {
       HelpFormatter formatter = new HelpFormatter();
       formatter.printHelp("vpc2vpc delete [options]", options);
       System.exit(0);
     }
-    
-    HashMap<String, VPC2VPCConnection> vpc2vpcIdConnections = VPC2VPCHelper.getInstance().getVPC2VPCConnections(awsCreds);
-    VPC2VPCConnection vpc2vpcConnection = vpc2vpcIdConnections.get(vpc2vpcId);
-    
-    if(vpc2vpcConnection == null) {
-      System.out.printf("ERROR: Unable to find a vpc2vpc connection with the ID: %s\n", vpc2vpcId);
+
+    // A bad ID must not fall through to the -a or -o sweep
+    Set<String> vpc2vpcIds = null;
+    try {
+      vpc2vpcIds = parseIds(cmd);
+    } catch (IllegalArgumentException e) {
+      LOG.error(e.getMessage());
+      System.exit(1);
+    }
+
+    long maxCreatedOn = Long.MAX_VALUE;
+    if (cmd.hasOption("o")) {
+      long ageMillis = parseDuration(cmd.getOptionValue("o"));
+      if (ageMillis < 0) {
+        LOG.error("Invalid age: " + cmd.getOptionValue("o") + ".  Use a number followed by s, m, h or d");
+        System.exit(1);
+      }
+      maxCreatedOn = System.currentTimeMillis() - ageMillis;
+    }
+
+    if (!initAwsContext(cmd.getOptionValue("regions"), cmd.hasOption("r"))) {
+      System.exit(1);
+    }
+
+    // Discover the connections once
+    HashMap<String, VPC2VPCConnection> vpc2vpcIdConnections = VPC2VPCHelper.getInstance().getVPC2VPCConnections(awsCreds, InventoryHelper.getInstance().takeSnapshot(awsCreds, regions, cmd.hasOption("r")));
+
+    boolean missing = false;
+    for (String vpc2vpcId : vpc2vpcIds) {
+      if (!vpc2vpcIdConnections.containsKey(vpc2vpcId)) {
+        System.out.printf("ERROR: Unable to find a vpc2vpc connection with the ID: %s\n", vpc2vpcId);
+        missing = true;
+      }
+    }
+    if (missing) {
       System.exit(1);
     }
-    
-    HashMap<String, VPNEndpoint> vpcIdVpnEndpoint = vpc2vpcConnection.getVpcIdVpnEndpoint();
+
+    List<VPC2VPCConnection> vpc2vpcConnections = selectConnections(vpc2vpcIdConnections, vpc2vpcIds, maxCreatedOn);
+
+    if (vpc2vpcConnections.isEmpty()) {
+      LOG.info("No vpc2vpc connections to delete");
+      return;
+    }
+
+    // Tear down all the connections together so each region's instances are
+    // terminated and waited on in one go
     List<VPNEndpoint> vpnEndpoints = new ArrayList();
-    vpnEndpoints.addAll(vpcIdVpnEndpoint.values());
-        
-    if(vpnEndpoints.size() > 0) {
+    for (VPC2VPCConnection vpc2vpcConnection : vpc2vpcConnections) {
+      LOG.info("Deleting vpc2vpc connection " + vpc2vpcConnection.getId());
+      vpnEndpoints.addAll(vpc2vpcConnection.getVpcIdVpnEndpoint().values());
+    }
+
+    if (vpnEndpoints.size() > 0) {
       LOG.debug("Starting the rollback");
-      RollbackHelper.getInstance().rollback(awsCreds, vpnEndpoints, true);
+      RollbackResult rollbackResult = RollbackHelper.getInstance().rollback(awsCreds, vpnEndpoints, true);
+      InventoryHelper.getInstance().invalidate(awsCreds, vpnEndpoints);
+      if (!rollbackResult.isSuccessful()) {
+        for (RollbackResult.Outcome failure : rollbackResult.getFailures()) {
+          LOG.error("Unable to delete " + failure);
+        }
+        System.exit(1);
+      }
+    }
+
+    if (vpc2vpcConnections.size() == 1) {
       LOG.info("The vpc2vpc connection has been deleted");
+    } else {
+      LOG.info(vpc2vpcConnections.size() + " vpc2vpc connections have been deleted");
+    }
+  }
+
+  /**
+   * Reads the IDs given with -i. IDs may be comma separated or follow -i as
+   * separate arguments.
+   *
+   * @param cmd
+   * @return the IDs, or an empty set if -i was not given
+   * @throws IllegalArgumentException if an ID is malformed, -i gives no IDs
+   * or there are arguments without -i
+   */
+  static Set<String> parseIds(CommandLine cmd) {
+    List<String> args = new ArrayList(cmd.getArgList());
+    if (!args.isEmpty() && args.get(0).equals("delete")) {
+      args.remove(0);
+    }
+
+    Set<String> vpc2vpcIds = new LinkedHashSet();
+    if (cmd.getOptionValue("i") == null) {
+      if (!args.isEmpty()) {
+        throw new IllegalArgumentException("Unexpected arguments: " + args + ".  Please pass the IDs with -i");
+      }
+      return vpc2vpcIds;
+    }
+
+    args.add(0, cmd.getOptionValue("i"));
+    for (String idArg : args) {
+      for (String vpc2vpcId : idArg.split(",")) {
+        vpc2vpcId = vpc2vpcId.trim();
+        if (vpc2vpcId.length() == 0) {
+          continue;
+        }
+        if (!isId(vpc2vpcId)) {
+          throw new IllegalArgumentException("Invalid vpc2vpc connection ID: " + vpc2vpcId);
+        }
+        vpc2vpcIds.add(vpc2vpcId);
+      }
+    }
+    if (vpc2vpcIds.isEmpty()) {
+      throw new IllegalArgumentException("No vpc2vpc connection IDs given with -i");
+    }
+    return vpc2vpcIds;
+  }
+
+  /**
+   * Checks for "vpc2vpc-" followed by lowercase letters and digits only
+   */
+  private static boolean isId(String vpc2vpcId) {
+    String prefix = "vpc2vpc-";
+    if (!vpc2vpcId.startsWith(prefix) || vpc2vpcId.length() == prefix.length()) {
+      return false;
+    }
+    for (int i = prefix.length(); i < vpc2vpcId.length(); i++) {
+      char c = vpc2vpcId.charAt(i);
+      if (!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9'))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param vpc2vpcIdConnections the discovered connections
+   * @param vpc2vpcIds the connections to delete, or empty for all of them
+   * @param maxCreatedOn only delete connections created at or before this
+   * time, or Long.MAX_VALUE for any time
+   * @return the connections to delete
+   */
+  static List<VPC2VPCConnection> selectConnections(Map<String, VPC2VPCConnection> vpc2vpcIdConnections,
+          Set<String> vpc2vpcIds, long maxCreatedOn) {
+    List<VPC2VPCConnection> vpc2vpcConnections = new ArrayList();
+    for (VPC2VPCConnection vpc2vpcConnection : vpc2vpcIdConnections.values()) {
+      if (!vpc2vpcIds.isEmpty() && !vpc2vpcIds.contains(vpc2vpcConnection.getId())) {
+        continue;
+      }
+      if (maxCreatedOn != Long.MAX_VALUE
+              && (vpc2vpcConnection.getCreatedOn() == null || vpc2vpcConnection.getCreatedOn().getTime() > maxCreatedOn)) {
+        continue;
+      }
+      vpc2vpcConnections.add(vpc2vpcConnection);
+    }
+    return vpc2vpcConnections;
+  }
+
+  /**
+   * Parses a duration such as 90s, 30m, 12h or 7d. A number without a unit
+   * is taken as seconds.
+   *
+   * @param duration
+   * @return the duration in milliseconds, or -1 if it is invalid
+   */
+  static long parseDuration(String duration) {
+    String value = duration.trim().toLowerCase();
+    if (value.length() == 0) {
+      return -1;
+    }
+    long unitMillis = 1000;
+    char unit = value.charAt(value.length() - 1);
+    if (unit == 'd') {
+      unitMillis = 24 * 60 * 60 * 1000L;
+    } else if (unit == 'h') {
+      unitMillis = 60 * 60 * 1000L;
+    } else if (unit == 'm') {
+      unitMillis = 60 * 1000L;
+    } else if (unit != 's' && !Character.isDigit(unit)) {
+      return -1;
+    }
+    if (!Character.isDigit(unit)) {
+      value = value.substring(0, value.length() - 1);
+    }
+    try {
+      long amount = Long.parseLong(value);
+      return amount < 0 ? -1 : amount * unitMillis;
+    } catch (NumberFormatException e) {
+      return -1;
     }
-    
   }
 }
@@ -0,0 +1,70 @@
+package vpc2vpc;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.services.ec2.AmazonEC2Client;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.Region;
+import com.amazonaws.services.ec2.model.Reservation;
+import org.apache.log4j.Logger;
+
+/**
+ * Describes one type of resource in one region into a
+ * RegionInventoryCollector
+ *
+ * @author Vinay Selvaraj
+ */
+class DescribeResourceRunnable implements Runnable {
+
+  private Logger LOG = Logger.getLogger(DescribeResourceRunnable.class);
+  private AmazonEC2Client ec2Client;
+  private Region region;
+  private InventoryResourceType resourceType;
+  private RegionInventoryCollector collector;
+
+  public DescribeResourceRunnable(AWSCredentials awsCreds, Region region,
+          InventoryResourceType resourceType, RegionInventoryCollector collector) {
+    this.region = region;
+    this.resourceType = resourceType;
+    this.collector = collector;
+    ec2Client = EC2ClientPool.getInstance().getClient(awsCreds, region);
+  }
+
+  public void run() {
+
+    // With this SDK only DescribeInstanceStatus pages its results, so each of
+    // these calls returns everything in one response
+    LOG.debug("Describing " + resourceType + " in " + region.getRegionName());
+    try {
+      switch (resourceType) {
+        case VPCS:
+          collector.vpcs.addAll(ec2Client.describeVpcs().getVpcs());
+          break;
+        case SUBNETS:
+          collector.subnets.addAll(ec2Client.describeSubnets().getSubnets());
+          break;
+        case ROUTE_TABLES:
+          collector.routeTables.addAll(ec2Client.describeRouteTables().getRouteTables());
+          break;
+        case INSTANCES:
+          DescribeInstancesRequest request = new DescribeInstancesRequest().withFilters(EC2Helper.getVPC2VPCInstanceFilters());
+          for (Reservation reservation : ec2Client.describeInstances(request).getReservations()) {
+            collector.instances.addAll(reservation.getInstances());
+          }
+          break;
+        case SECURITY_GROUPS:
+          collector.securityGroups.addAll(ec2Client.describeSecurityGroups().getSecurityGroups());
+          break;
+        case ADDRESSES:
+          collector.addresses.addAll(ec2Client.describeAddresses().getAddresses());
+          break;
+        case NETWORK_INTERFACES:
+          collector.networkInterfaces.addAll(ec2Client.describeNetworkInterfaces().getNetworkInterfaces());
+          break;
+      }
+    } catch (Exception e) {
+      collector.setFailed();
+      LOG.error("Unable to describe " + resourceType + " in " + region.getRegionName() + ": " + e.getMessage());
+    }
+    LOG.debug("Completed describing " + resourceType + " in " + region.getRegionName());
+  }
+}
@@ -0,0 +1,100 @@
+package vpc2vpc;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.services.ec2.AmazonEC2Client;
+import com.amazonaws.services.ec2.model.Region;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.log4j.Logger;
+
+/**
+ * Registry of long-lived EC2 clients, one per credentials / region endpoint.
+ * The clients handed out are shared between threads and must never have
+ * their endpoint changed with setEndpoint().
+ *
+ * @author Vinay Selvaraj
+ */
+public class EC2ClientPool {
+
+  private static final String DEFAULT_ENDPOINT = "ec2.amazonaws.com";
+  private Logger LOG = Logger.getLogger(EC2ClientPool.class);
+  private static final EC2ClientPool instance = new EC2ClientPool();
+  private ConcurrentMap<String, AmazonEC2Client> clients;
+  private ClientConfiguration clientConfig;
+
+  private EC2ClientPool() {
+    clients = new ConcurrentHashMap();
+    clientConfig = createClientConfiguration();
+  }
+
+  public static EC2ClientPool getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns the client for the default endpoint
+   *
+   * @param awsCreds
+   * @return
+   */
+  public AmazonEC2Client getClient(AWSCredentials awsCreds) {
+    return getClient(awsCreds, DEFAULT_ENDPOINT);
+  }
+
+  /**
+   * Returns the client for the region's endpoint
+   *
+   * @param awsCreds
+   * @param region
+   * @return
+   */
+  public AmazonEC2Client getClient(AWSCredentials awsCreds, Region region) {
+    return getClient(awsCreds, region.getEndpoint());
+  }
+
+  /**
+   * Returns the client for the endpoint, creating it on first use
+   *
+   * @param awsCreds
+   * @param endpoint
+   * @return
+   */
+  public AmazonEC2Client getClient(AWSCredentials awsCreds, String endpoint) {
+    String key = awsCreds.getAWSAccessKeyId() + "@" + endpoint;
+    AmazonEC2Client ec2Client = clients.get(key);
+    if (ec2Client == null) {
+      AmazonEC2Client newClient = new AmazonEC2Client(awsCreds, clientConfig);
+      newClient.setEndpoint(endpoint);
+      ec2Client = clients.putIfAbsent(key, newClient);
+      if (ec2Client == null) {
+        ec2Client = newClient;
+        LOG.debug("Created EC2 client for " + endpoint);
+      } else {
+        newClient.shutdown();
+      }
+    }
+    return ec2Client;
+  }
+
+  /**
+   * Shuts down all the clients in the pool
+   */
+  public void shutdown() {
+    for (AmazonEC2Client ec2Client : clients.values()) {
+      ec2Client.shutdown();
+    }
+    clients.clear();
+  }
+
+  private ClientConfiguration createClientConfiguration() {
+    ClientConfiguration config = new ClientConfiguration();
+    ApplicationConfig appConfig = ApplicationConfig.getInstance();
+    config.setMaxConnections(appConfig.getEc2MaxConnections());
+    config.setConnectionTimeout(appConfig.getEc2ConnectionTimeoutMillis());
+    config.setSocketTimeout(appConfig.getEc2SocketTimeoutMillis());
+    config.setMaxErrorRetry(appConfig.getEc2MaxErrorRetry());
+    return config;
+  }
+
+}
@@ -0,0 +1,87 @@
+package vpc2vpc;
+
+/**
+ * An endpoint given on the command line: a VPC ID, a subnet ID or a CIDR
+ * block. Arguments are scanned once, without regular expressions, into this
+ * typed form.
+ *
+ * @author Vinay Selvaraj
+ */
+public final class EndpointSpec {
+
+  public enum Type {
+
+    VPC_ID, SUBNET_ID, CIDR
+  }
+  private static final String VPC_ID_PREFIX = "vpc-";
+  private static final String SUBNET_ID_PREFIX = "subnet-";
+  private final Type type;
+  private final String text;
+  private final Cidr cidr;
+
+  private EndpointSpec(Type type, String text, Cidr cidr) {
+    this.type = type;
+    this.text = text;
+    this.cidr = cidr;
+  }
+
+  /**
+   * @param arg
+   * @return the endpoint, or null if the argument is not an endpoint
+   */
+  public static EndpointSpec parse(String arg) {
+    if (arg == null || arg.length() == 0) {
+      return null;
+    }
+    if (isId(arg, VPC_ID_PREFIX)) {
+      return new EndpointSpec(Type.VPC_ID, arg, null);
+    }
+    if (isId(arg, SUBNET_ID_PREFIX)) {
+      return new EndpointSpec(Type.SUBNET_ID, arg, null);
+    }
+    Cidr cidr = Cidr.tryParse(arg);
+    if (cidr != null) {
+      return new EndpointSpec(Type.CIDR, arg, cidr);
+    }
+    return null;
+  }
+
+  /**
+   * Checks for the prefix followed by letters and digits only
+   */
+  private static boolean isId(String arg, String prefix) {
+    if (!arg.startsWith(prefix)) {
+      return false;
+    }
+    for (int i = prefix.length(); i < arg.length(); i++) {
+      char c = arg.charAt(i);
+      if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9'))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * @return the argument as given, which is the ID for VPC and subnet IDs
+   */
+  public String getText() {
+    return text;
+  }
+
+  /**
+   * @return the block for CIDR endpoints, otherwise null
+   */
+  public Cidr getCidr() {
+    return cidr;
+  }
+
+  @Override
+  public String toString() {
+    return text;
+  }
+}
@@ -0,0 +1,185 @@
+package vpc2vpc;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.services.ec2.AmazonEC2Client;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Region;
+import com.amazonaws.services.ec2.model.Reservation;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.apache.log4j.Logger;
+
+/**
+ * Waits for EC2 instances to reach a state. The instances of a region are
+ * checked with a single describeInstances call per poll, and the poll
+ * interval starts short and backs off (with jitter) up to a maximum.
+ *
+ * @author Vinay Selvaraj
+ */
+public class InstanceWaiter {
+
+  public static final String STATE_RUNNING = "running";
+  public static final String STATE_TERMINATED = "terminated";
+  private Logger LOG = Logger.getLogger(InstanceWaiter.class);
+  private static final InstanceWaiter instance = new InstanceWaiter();
+  private final long initialPollMillis;
+  private final long maxPollMillis;
+  private final long runningTimeoutMillis;
+  private final long terminatedTimeoutMillis;
+  private Random random = new Random();
+
+  private InstanceWaiter() {
+    ApplicationConfig appConfig = ApplicationConfig.getInstance();
+    initialPollMillis = appConfig.getWaitPollInitialMillis();
+    maxPollMillis = appConfig.getWaitPollMaxMillis();
+    runningTimeoutMillis = appConfig.getWaitRunningTimeoutMillis();
+    terminatedTimeoutMillis = appConfig.getWaitTerminatedTimeoutMillis();
+  }
+
+  public static InstanceWaiter getInstance() {
+    return instance;
+  }
+
+  public long getRunningTimeoutMillis() {
+    return runningTimeoutMillis;
+  }
+
+  public long getTerminatedTimeoutMillis() {
+    return terminatedTimeoutMillis;
+  }
+
+  /**
+   * Waits for the instances of the endpoints to reach the target state
+   *
+   * @param awsCreds
+   * @param vpnEndpoints
+   * @param targetState
+   * @param timeoutMillis
+   * @return true if all instances reached the state, false on timeout
+   * @throws InterruptedException
+   */
+  public boolean waitForState(AWSCredentials awsCreds, List<VPNEndpoint> vpnEndpoints, String targetState,
+          long timeoutMillis) throws InterruptedException {
+
+    HashMap<Region, Set<String>> regionInstanceIds = new HashMap();
+    for (VPNEndpoint vpnEndpoint : vpnEndpoints) {
+      if (vpnEndpoint.getInstance() == null || vpnEndpoint.getRegion() == null) {
+        continue;
+      }
+      Set<String> instanceIds = regionInstanceIds.get(vpnEndpoint.getRegion());
+      if (instanceIds == null) {
+        instanceIds = new HashSet();
+        regionInstanceIds.put(vpnEndpoint.getRegion(), instanceIds);
+      }
+      instanceIds.add(vpnEndpoint.getInstance().getInstanceId());
+    }
+
+    return waitForState(awsCreds, regionInstanceIds, targetState, timeoutMillis);
+  }
+
+  /**
+   * Waits for the instances to reach the target state
+   *
+   * @param awsCreds
+   * @param regionInstanceIds instance IDs to wait on, by region
+   * @param targetState
+   * @param timeoutMillis
+   * @return true if all instances reached the state, false on timeout
+   * @throws InterruptedException
+   */
+  public boolean waitForState(AWSCredentials awsCreds, Map<Region, Set<String>> regionInstanceIds, String targetState,
+          long timeoutMillis) throws InterruptedException {
+
+    // Copy the sets since instances are removed as they reach the state
+    HashMap<Region, Set<String>> pending = new HashMap();
+    for (Map.Entry<Region, Set<String>> entry : regionInstanceIds.entrySet()) {
+      if (!entry.getValue().isEmpty()) {
+        pending.put(entry.getKey(), new HashSet<String>(entry.getValue()));
+      }
+    }
+
+    long endTime = System.currentTimeMillis() + timeoutMillis;
+    long pollMillis = initialPollMillis;
+
+    while (true) {
+      for (Region region : new ArrayList<Region>(pending.keySet())) {
+        Set<String> instanceIds = pending.get(region);
+        pollRegion(awsCreds, region, instanceIds, targetState);
+        if (instanceIds.isEmpty()) {
+          pending.remove(region);
+        }
+      }
+
+      if (pending.isEmpty()) {
+        return true;
+      }
+
+      long remainingMillis = endTime - System.currentTimeMillis();
+      if (remainingMillis <= 0) {
+        LOG.debug("Timed out waiting on instances to become " + targetState + ": " + pending);
+        return false;
+      }
+
+      // Sleep with +/- 20% jitter, then back off
+      long sleepMillis = pollMillis + (long) ((random.nextDouble() - 0.5) * 0.4 * pollMillis);
+      Thread.sleep(Math.max(0, Math.min(sleepMillis, remainingMillis)));
+      pollMillis = Math.min((long) (pollMillis * 1.5), maxPollMillis);
+    }
+  }
+
+  /**
+   * Describes the region's pending instances in one call and removes the ones
+   * that have reached the target state from the set
+   */
+  private void pollRegion(AWSCredentials awsCreds, Region region, Set<String> instanceIds, String targetState) {
+    AmazonEC2Client ec2Client = EC2ClientPool.getInstance().getClient(awsCreds, region);
+    DescribeInstancesRequest descInstancesReq = new DescribeInstancesRequest().withInstanceIds(instanceIds);
+    try {
+      List<Reservation> reservations = ec2Client.describeInstances(descInstancesReq).getReservations();
+      for (Reservation reservation : reservations) {
+        for (Instance ec2Instance : reservation.getInstances()) {
+          LOG.debug("Waiting on instances: " + ec2Instance.getInstanceId() + " state: " + ec2Instance.getState());
+          if (ec2Instance.getState().getName().equals(targetState)) {
+            instanceIds.remove(ec2Instance.getInstanceId());
+          }
+        }
+      }
+    } catch (AmazonServiceException e) {
+      // A terminated instance may already be gone. A new instance may not
+      // be visible yet, so in that case just poll again.
+      if ("InvalidInstanceID.NotFound".equals(e.getErrorCode()) && STATE_TERMINATED.equals(targetState)) {
+        LOG.debug("Instances no longer found in " + region.getRegionName() + ": " + instanceIds);
+        if (instanceIds.size() == 1) {
+          instanceIds.clear();
+        } else {
+          // Find out which of the instances are gone one by one
+          for (String instanceId : new ArrayList<String>(instanceIds)) {
+            Set<String> singleInstanceId = singleton(instanceId);
+            pollRegion(awsCreds, region, singleInstanceId, targetState);
+            if (singleInstanceId.isEmpty()) {
+              instanceIds.remove(instanceId);
+            }
+          }
+        }
+      } else {
+        LOG.debug("Ignoring exception: " + e.getMessage());
+      }
+    } catch (Exception e) {
+      LOG.debug("Ignoring exception: " + e.getMessage());
+    }
+  }
+
+  private Set<String> singleton(String instanceId) {
+    Set<String> instanceIds = new HashSet();
+    instanceIds.add(instanceId);
+    return instanceIds;
+  }
+
+}
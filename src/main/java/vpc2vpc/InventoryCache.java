@@ -0,0 +1,204 @@
+package vpc2vpc;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.services.ec2.model.Region;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Local on-disk cache of the per-region inventory. Each region is stored in
+ * its own file so that stale regions can be refreshed independently. The
+ * region list itself is kept in a separate file with a much longer TTL.
+ *
+ * @author Vinay Selvaraj
+ */
+public class InventoryCache {
+
+  private Logger LOG = Logger.getLogger(InventoryCache.class);
+  private static final InventoryCache instance = new InventoryCache();
+  private File cacheDir;
+  private long ttlMillis;
+  private long regionsTtlMillis;
+
+  private InventoryCache() {
+    ApplicationConfig appConfig = ApplicationConfig.getInstance();
+    String cacheDirName = appConfig.getInventoryCacheDir();
+    if (cacheDirName == null) {
+      cacheDirName = System.getProperty("user.home") + File.separator + ".vpc2vpc" + File.separator + "cache";
+    }
+    cacheDir = new File(cacheDirName);
+    ttlMillis = appConfig.getInventoryCacheTtlMillis();
+    regionsTtlMillis = appConfig.getRegionsCacheTtlMillis();
+  }
+
+  public static InventoryCache getInstance() {
+    return instance;
+  }
+
+  public boolean isEnabled() {
+    return ttlMillis > 0;
+  }
+
+  /**
+   * Returns the cached inventory for the region or null if there isn't one
+   * or it has expired
+   *
+   * @param awsCreds
+   * @param region
+   * @return
+   */
+  public RegionInventory load(AWSCredentials awsCreds, Region region) {
+    return load(awsCreds, region, ttlMillis);
+  }
+
+  /**
+   * Returns the cached inventory for the region or null if there isn't one
+   * or it is older than the given age
+   *
+   * @param awsCreds
+   * @param region
+   * @param maxAgeMillis
+   * @return
+   */
+  public RegionInventory load(AWSCredentials awsCreds, Region region, long maxAgeMillis) {
+    if (!isEnabled()) {
+      return null;
+    }
+
+    RegionInventory regionInventory = (RegionInventory) readObject(getCacheFile(awsCreds, region));
+    if (regionInventory == null) {
+      return null;
+    }
+    if (System.currentTimeMillis() - regionInventory.getFetchedOn() > maxAgeMillis) {
+      LOG.debug("Cached inventory for " + region.getRegionName() + " has expired");
+      return null;
+    }
+    LOG.debug("Using cached inventory for " + region.getRegionName());
+    return regionInventory;
+  }
+
+  /**
+   * Writes the region's inventory to the cache
+   *
+   * @param awsCreds
+   * @param regionInventory
+   */
+  public void store(AWSCredentials awsCreds, RegionInventory regionInventory) {
+    if (!isEnabled()) {
+      return;
+    }
+    writeObject(getCacheFile(awsCreds, regionInventory.getRegion()), regionInventory);
+  }
+
+  /**
+   * Returns the cached region list or null if there isn't one or it has
+   * expired
+   *
+   * @param awsCreds
+   * @return
+   */
+  public List<Region> loadRegions(AWSCredentials awsCreds) {
+    if (regionsTtlMillis <= 0) {
+      return null;
+    }
+
+    File cacheFile = getRegionsCacheFile(awsCreds);
+    if (System.currentTimeMillis() - cacheFile.lastModified() > regionsTtlMillis) {
+      LOG.debug("Cached region list has expired");
+      return null;
+    }
+    return (List<Region>) readObject(cacheFile);
+  }
+
+  /**
+   * Writes the region list to the cache
+   *
+   * @param awsCreds
+   * @param regions
+   */
+  public void storeRegions(AWSCredentials awsCreds, List<Region> regions) {
+    if (regionsTtlMillis > 0) {
+      writeObject(getRegionsCacheFile(awsCreds), new ArrayList<Region>(regions));
+    }
+  }
+
+  /**
+   * Removes the cached inventory for the region. Called after resources in
+   * the region have been changed.
+   *
+   * @param awsCreds
+   * @param region
+   */
+  public void invalidate(AWSCredentials awsCreds, Region region) {
+    File cacheFile = getCacheFile(awsCreds, region);
+    if (cacheFile.isFile() && !cacheFile.delete()) {
+      LOG.debug("Unable to delete inventory cache file " + cacheFile);
+    }
+  }
+
+  /**
+   * @return the object in the file, or null if it is missing or unreadable
+   */
+  private Object readObject(File cacheFile) {
+    if (!cacheFile.isFile()) {
+      return null;
+    }
+
+    ObjectInputStream in = null;
+    try {
+      in = new ObjectInputStream(new FileInputStream(cacheFile));
+      return in.readObject();
+    } catch (Exception e) {
+      LOG.debug("Ignoring unreadable cache file " + cacheFile + ": " + e.getMessage());
+      return null;
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+  }
+
+  /**
+   * Writes the object to a temporary file and renames it into place, so
+   * readers never see a partly written file
+   */
+  private void writeObject(File cacheFile, Object object) {
+    File tmpFile = new File(cacheFile.getPath() + ".tmp");
+    ObjectOutputStream out = null;
+    try {
+      if (!cacheFile.getParentFile().isDirectory() && !cacheFile.getParentFile().mkdirs()) {
+        throw new IOException("Unable to create " + cacheFile.getParentFile());
+      }
+      out = new ObjectOutputStream(new FileOutputStream(tmpFile));
+      out.writeObject(object);
+      out.close();
+      out = null;
+      if (!tmpFile.renameTo(cacheFile)) {
+        cacheFile.delete();
+        if (!tmpFile.renameTo(cacheFile)) {
+          throw new IOException("Unable to rename " + tmpFile + " to " + cacheFile);
+        }
+      }
+    } catch (IOException e) {
+      LOG.debug("Unable to write cache file " + cacheFile + ": " + e.getMessage());
+      tmpFile.delete();
+    } finally {
+      IOUtils.closeQuietly(out);
+    }
+  }
+
+  private File getRegionsCacheFile(AWSCredentials awsCreds) {
+    return new File(new File(cacheDir, awsCreds.getAWSAccessKeyId()), "regions.ser");
+  }
+
+  private File getCacheFile(AWSCredentials awsCreds, Region region) {
+    File accountDir = new File(cacheDir, awsCreds.getAWSAccessKeyId());
+    return new File(accountDir, region.getRegionName() + ".ser");
+  }
+}
@@ -0,0 +1,230 @@
+package vpc2vpc;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.services.ec2.AmazonEC2Client;
+import com.amazonaws.services.ec2.model.DescribeSubnetsRequest;
+import com.amazonaws.services.ec2.model.DescribeVpcsRequest;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Region;
+import com.amazonaws.services.ec2.model.Subnet;
+import com.amazonaws.services.ec2.model.Vpc;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import org.apache.log4j.Logger;
+
+/**
+ * Builds an InventorySnapshot by running every describe call for every
+ * region concurrently in a single pass. Only the running instances tagged by
+ * vpc2vpc are included.
+ *
+ * @author Vinay Selvaraj
+ */
+public class InventoryHelper {
+
+  private Logger LOG = Logger.getLogger(InventoryHelper.class);
+  private static final InventoryHelper instance = new InventoryHelper();
+
+  private InventoryHelper() {
+  }
+
+  public static InventoryHelper getInstance() {
+    return instance;
+  }
+
+  public InventorySnapshot takeSnapshot(AWSCredentials awsCreds) {
+    List<Region> regions = RegionCatalog.getInstance().getRegions(awsCreds);
+
+    return takeSnapshot(awsCreds, regions);
+  }
+
+  public InventorySnapshot takeSnapshot(AWSCredentials awsCreds, List<Region> regions) {
+    return takeSnapshot(awsCreds, regions, false);
+  }
+
+  /**
+   * Takes a snapshot of the regions. Regions which have a fresh entry in the
+   * InventoryCache are served from it unless refresh is set; the rest are
+   * described concurrently and written back to the cache.
+   *
+   * @param awsCreds
+   * @param regions
+   * @param refresh bypass the inventory cache
+   * @return
+   */
+  public InventorySnapshot takeSnapshot(AWSCredentials awsCreds, List<Region> regions, boolean refresh) {
+
+    InventoryCache inventoryCache = InventoryCache.getInstance();
+    List<RegionInventory> inventories = new ArrayList();
+    List<RegionInventoryCollector> collectors = new ArrayList();
+    for (Region region : regions) {
+      RegionInventory cachedInventory = refresh ? null : inventoryCache.load(awsCreds, region);
+      if (cachedInventory != null) {
+        inventories.add(cachedInventory);
+      } else {
+        collectors.add(new RegionInventoryCollector(awsCreds, region));
+      }
+    }
+
+    if (!collectors.isEmpty()) {
+      collect(collectors, EnumSet.allOf(InventoryResourceType.class));
+
+      for (RegionInventoryCollector collector : collectors) {
+        RegionInventory regionInventory = collector.toRegionInventory(null);
+        inventories.add(regionInventory);
+        if (!collector.hasFailed()) {
+          inventoryCache.store(awsCreds, regionInventory);
+        }
+      }
+    }
+
+    return new InventorySnapshot(inventories, System.currentTimeMillis());
+  }
+
+  /**
+   * Runs the describe calls for the resource types of every collector
+   * concurrently and waits for them to complete
+   *
+   * @param collectors
+   * @param resourceTypes
+   */
+  void collect(List<RegionInventoryCollector> collectors, Set<InventoryResourceType> resourceTypes) {
+    Map<String, Runnable> workers = new LinkedHashMap();
+    Map<String, RegionInventoryCollector> workerCollectors = new HashMap();
+    for (RegionInventoryCollector collector : collectors) {
+      for (InventoryResourceType resourceType : resourceTypes) {
+        String workerName = resourceType + " in " + collector.getRegion().getRegionName();
+        workers.put(workerName, collector.newWorker(resourceType));
+        workerCollectors.put(workerName, collector);
+      }
+    }
+
+    // The workers record their own errors; this catches the ones which time out
+    for (Map.Entry<String, RegionExecutor.Result<Object>> entry : RegionExecutor.getInstance().runAll(workers).entrySet()) {
+      if (!entry.getValue().isSuccessful()) {
+        workerCollectors.get(entry.getKey()).setFailed();
+        LOG.error("Unable to describe " + entry.getKey() + ": " + entry.getValue().getErrorMessage());
+      }
+    }
+  }
+
+  /**
+   * Finds the regions which hold the VPCs and subnets named by ID. The IDs
+   * are looked up in the cached inventories first, expired or not, as a VPC
+   * or subnet never moves region, and the rest with a filtered
+   * describeVpcs and describeSubnets per region.
+   *
+   * @param awsCreds
+   * @param regions the regions to look in
+   * @param endpointSpecs
+   * @return the regions in their original order, or null if an endpoint is
+   * a CIDR block, which has to be checked against every region, or could not
+   * be located
+   */
+  public List<Region> locateRegions(final AWSCredentials awsCreds, List<Region> regions, List<EndpointSpec> endpointSpecs) {
+    final Set<String> vpcIds = new HashSet();
+    final Set<String> subnetIds = new HashSet();
+    for (EndpointSpec endpointSpec : endpointSpecs) {
+      if (endpointSpec.getType() == EndpointSpec.Type.VPC_ID) {
+        vpcIds.add(endpointSpec.getText());
+      } else if (endpointSpec.getType() == EndpointSpec.Type.SUBNET_ID) {
+        subnetIds.add(endpointSpec.getText());
+      } else {
+        return null;
+      }
+    }
+    if (vpcIds.isEmpty() && subnetIds.isEmpty()) {
+      return null;
+    }
+
+    Set<String> regionNames = new HashSet();
+    for (Region region : regions) {
+      RegionInventory cachedInventory = InventoryCache.getInstance().load(awsCreds, region, Long.MAX_VALUE);
+      if (cachedInventory == null) {
+        continue;
+      }
+      for (Vpc vpc : cachedInventory.getVpcs()) {
+        if (vpcIds.remove(vpc.getVpcId())) {
+          regionNames.add(region.getRegionName());
+        }
+      }
+      for (Subnet subnet : cachedInventory.getSubnets()) {
+        if (subnetIds.remove(subnet.getSubnetId())) {
+          regionNames.add(region.getRegionName());
+        }
+      }
+    }
+
+    if (!vpcIds.isEmpty() || !subnetIds.isEmpty()) {
+      Map<Region, Callable<Set<String>>> calls = new LinkedHashMap();
+      for (final Region region : regions) {
+        calls.put(region, new Callable<Set<String>>() {
+          public Set<String> call() {
+            AmazonEC2Client ec2Client = EC2ClientPool.getInstance().getClient(awsCreds, region);
+            Set<String> found = new HashSet();
+            if (!vpcIds.isEmpty()) {
+              List<Filter> filters = new ArrayList();
+              filters.add(new Filter("vpc-id").withValues(vpcIds));
+              for (Vpc vpc : ec2Client.describeVpcs(new DescribeVpcsRequest().withFilters(filters)).getVpcs()) {
+                found.add(vpc.getVpcId());
+              }
+            }
+            if (!subnetIds.isEmpty()) {
+              List<Filter> filters = new ArrayList();
+              filters.add(new Filter("subnet-id").withValues(subnetIds));
+              for (Subnet subnet : ec2Client.describeSubnets(new DescribeSubnetsRequest().withFilters(filters)).getSubnets()) {
+                found.add(subnet.getSubnetId());
+              }
+            }
+            return found;
+          }
+        });
+      }
+
+      Set<String> located = new HashSet();
+      for (Map.Entry<Region, RegionExecutor.Result<Set<String>>> entry : RegionExecutor.getInstance().invokeAll(calls).entrySet()) {
+        if (!entry.getValue().isSuccessful()) {
+          LOG.debug("Unable to locate endpoints in " + entry.getKey().getRegionName() + ": " + entry.getValue().getErrorMessage());
+          return null;
+        }
+        if (!entry.getValue().getValue().isEmpty()) {
+          regionNames.add(entry.getKey().getRegionName());
+          located.addAll(entry.getValue().getValue());
+        }
+      }
+      if (!located.containsAll(vpcIds) || !located.containsAll(subnetIds)) {
+        return null;
+      }
+    }
+
+    List<Region> endpointRegions = new ArrayList();
+    for (Region region : regions) {
+      if (regionNames.contains(region.getRegionName())) {
+        endpointRegions.add(region);
+      }
+    }
+    LOG.debug("Endpoints are in " + regionNames);
+    return endpointRegions;
+  }
+
+  /**
+   * Drops the cached inventory of the regions the endpoints are in so the next
+   * run sees the changes that were made to them
+   *
+   * @param awsCreds
+   * @param vpnEndpoints
+   */
+  public void invalidate(AWSCredentials awsCreds, List<VPNEndpoint> vpnEndpoints) {
+    for (VPNEndpoint vpnEndpoint : vpnEndpoints) {
+      if (vpnEndpoint.getRegion() != null) {
+        InventoryCache.getInstance().invalidate(awsCreds, vpnEndpoint.getRegion());
+      }
+    }
+  }
+}
@@ -0,0 +1,255 @@
+package vpc2vpc;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Region;
+import com.amazonaws.services.ec2.model.Subnet;
+import com.amazonaws.services.ec2.model.Vpc;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps an InventorySnapshot up to date for a long running process. Each
+ * cycle describes only the VPCs, subnets and vpc2vpc instances of every
+ * region and compares their fingerprints (ids and state) with the current
+ * inventory. The other resource types are re-described only for the regions
+ * where something changed, or when a region is due a full refresh. A new
+ * snapshot is built from the new and unchanged region inventories and
+ * swapped in, so readers never wait on a refresh.
+ *
+ * @author Vinay Selvaraj
+ */
+public class InventoryRefresher {
+
+  private static final Set<InventoryResourceType> PROBE_TYPES = EnumSet.of(
+          InventoryResourceType.VPCS, InventoryResourceType.SUBNETS, InventoryResourceType.INSTANCES);
+  private static final Set<InventoryResourceType> NETWORK_DEPENDENT_TYPES = EnumSet.of(
+          InventoryResourceType.ROUTE_TABLES);
+  private static final Set<InventoryResourceType> INSTANCE_DEPENDENT_TYPES = EnumSet.of(
+          InventoryResourceType.ROUTE_TABLES, InventoryResourceType.SECURITY_GROUPS,
+          InventoryResourceType.ADDRESSES, InventoryResourceType.NETWORK_INTERFACES);
+  private Logger LOG = Logger.getLogger(InventoryRefresher.class);
+  private AWSCredentials awsCreds;
+  private List<Region> regions;
+  private long fullRefreshMillis;
+  private volatile InventorySnapshot snapshot;
+  private Map<String, Long> lastFullRefresh = new HashMap();
+  private Set<String> staleRegions = new HashSet();
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * @param awsCreds
+   * @param regions
+   * @param fullRefreshMillis how often each region is re-described in full
+   * regardless of its fingerprint
+   */
+  public InventoryRefresher(AWSCredentials awsCreds, List<Region> regions, long fullRefreshMillis) {
+    this.awsCreds = awsCreds;
+    this.regions = regions;
+    this.fullRefreshMillis = fullRefreshMillis;
+  }
+
+  /**
+   * Takes the first snapshot, which may come from the InventoryCache, and
+   * schedules the refresh cycles
+   *
+   * @param intervalMillis time between the end of one cycle and the start of
+   * the next
+   */
+  public synchronized void start(long intervalMillis) {
+    snapshot = InventoryHelper.getInstance().takeSnapshot(awsCreds, regions);
+    long now = System.currentTimeMillis();
+    for (RegionInventory regionInventory : snapshot.getRegionInventories()) {
+      lastFullRefresh.put(regionInventory.getRegion().getRegionName(), regionInventory.getFetchedOn());
+    }
+    LOG.debug("Inventory snapshot is " + (now - snapshot.getCreatedOn()) + "ms old");
+
+    scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "inventory-refresher");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        try {
+          refresh();
+        } catch (Exception e) {
+          LOG.error("Inventory refresh failed: " + e.getMessage());
+        }
+      }
+    }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public synchronized void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  /**
+   * @return the latest snapshot, without waiting on a refresh in progress
+   */
+  public InventorySnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Re-describes the regions in full on the calling thread, e.g. after
+   * vpc2vpc has made changes to them
+   *
+   * @param changedRegions
+   */
+  public void refreshRegions(Collection<Region> changedRegions) {
+    synchronized (staleRegions) {
+      for (Region region : changedRegions) {
+        staleRegions.add(region.getRegionName());
+      }
+    }
+    refresh();
+  }
+
+  /**
+   * Re-describes every region in full on the calling thread
+   */
+  public void refreshAll() {
+    refreshRegions(regions);
+  }
+
+  /**
+   * Runs one refresh cycle
+   */
+  public synchronized void refresh() {
+    InventorySnapshot current = snapshot;
+    long now = System.currentTimeMillis();
+
+    Set<String> stale;
+    synchronized (staleRegions) {
+      stale = new HashSet<String>(staleRegions);
+      staleRegions.clear();
+    }
+
+    // Regions due a full refresh skip the probe
+    List<RegionInventoryCollector> fullCollectors = new ArrayList();
+    List<RegionInventoryCollector> probeCollectors = new ArrayList();
+    for (Region region : regions) {
+      Long lastFull = lastFullRefresh.get(region.getRegionName());
+      if (current.getRegionInventory(region) == null || stale.contains(region.getRegionName())
+              || lastFull == null || now - lastFull > fullRefreshMillis) {
+        fullCollectors.add(new RegionInventoryCollector(awsCreds, region));
+      } else {
+        probeCollectors.add(new RegionInventoryCollector(awsCreds, region));
+      }
+    }
+
+    InventoryHelper inventoryHelper = InventoryHelper.getInstance();
+    inventoryHelper.collect(fullCollectors, EnumSet.allOf(InventoryResourceType.class));
+    inventoryHelper.collect(probeCollectors, PROBE_TYPES);
+
+    Map<Region, RegionInventory> updated = new LinkedHashMap();
+    for (RegionInventoryCollector collector : fullCollectors) {
+      if (!collector.hasFailed()) {
+        updated.put(collector.getRegion(), collector.toRegionInventory(null));
+        lastFullRefresh.put(collector.getRegion().getRegionName(), now);
+      }
+    }
+
+    // Compare the fingerprints and find what else needs to be described
+    Map<RegionInventoryCollector, RegionInventory> probed = new LinkedHashMap();
+    Map<Set<InventoryResourceType>, List<RegionInventoryCollector>> followUps = new HashMap();
+    for (RegionInventoryCollector collector : probeCollectors) {
+      if (collector.hasFailed()) {
+        continue;
+      }
+      RegionInventory previous = current.getRegionInventory(collector.getRegion());
+      RegionInventory probedInventory = collector.toRegionInventory(previous);
+
+      Set<InventoryResourceType> followUpTypes = EnumSet.noneOf(InventoryResourceType.class);
+      if (!vpcFingerprint(previous).equals(vpcFingerprint(probedInventory))) {
+        followUpTypes.addAll(NETWORK_DEPENDENT_TYPES);
+      }
+      if (!instanceFingerprint(previous).equals(instanceFingerprint(probedInventory))) {
+        followUpTypes.addAll(INSTANCE_DEPENDENT_TYPES);
+      }
+      if (followUpTypes.isEmpty()) {
+        continue;
+      }
+
+      LOG.debug("Inventory of " + collector.getRegion().getRegionName() + " changed, describing " + followUpTypes);
+      RegionInventoryCollector followUp = new RegionInventoryCollector(awsCreds, collector.getRegion());
+      probed.put(followUp, probedInventory);
+      List<RegionInventoryCollector> collectors = followUps.get(followUpTypes);
+      if (collectors == null) {
+        collectors = new ArrayList();
+        followUps.put(followUpTypes, collectors);
+      }
+      collectors.add(followUp);
+    }
+
+    for (Map.Entry<Set<InventoryResourceType>, List<RegionInventoryCollector>> entry : followUps.entrySet()) {
+      inventoryHelper.collect(entry.getValue(), entry.getKey());
+    }
+    for (Map.Entry<RegionInventoryCollector, RegionInventory> entry : probed.entrySet()) {
+      if (!entry.getKey().hasFailed()) {
+        updated.put(entry.getKey().getRegion(), entry.getKey().toRegionInventory(entry.getValue()));
+      }
+    }
+
+    if (updated.isEmpty()) {
+      LOG.debug("Inventory unchanged");
+      return;
+    }
+
+    // Copy on write: unchanged regions are shared with the previous snapshot
+    List<RegionInventory> inventories = new ArrayList();
+    for (Region region : regions) {
+      RegionInventory regionInventory = updated.get(region);
+      if (regionInventory == null) {
+        regionInventory = current.getRegionInventory(region);
+      } else {
+        InventoryCache.getInstance().store(awsCreds, regionInventory);
+      }
+      if (regionInventory != null) {
+        inventories.add(regionInventory);
+      }
+    }
+    snapshot = new InventorySnapshot(inventories, System.currentTimeMillis());
+    LOG.debug("Inventory updated for " + updated.size() + " regions");
+  }
+
+  private static List<String> vpcFingerprint(RegionInventory regionInventory) {
+    List<String> fingerprint = new ArrayList();
+    for (Vpc vpc : regionInventory.getVpcs()) {
+      fingerprint.add(vpc.getVpcId() + ":" + vpc.getCidrBlock() + ":" + vpc.getState());
+    }
+    for (Subnet subnet : regionInventory.getSubnets()) {
+      fingerprint.add(subnet.getSubnetId() + ":" + subnet.getVpcId() + ":" + subnet.getCidrBlock());
+    }
+    Collections.sort(fingerprint);
+    return fingerprint;
+  }
+
+  private static List<String> instanceFingerprint(RegionInventory regionInventory) {
+    List<String> fingerprint = new ArrayList();
+    for (Instance instance : regionInventory.getInstances()) {
+      fingerprint.add(instance.getInstanceId() + ":" + instance.getState().getName() + ":" + instance.getPublicIpAddress());
+    }
+    Collections.sort(fingerprint);
+    return fingerprint;
+  }
+}
@@ -0,0 +1,11 @@
+package vpc2vpc;
+
+/**
+ * The resources InventoryHelper describes in each region
+ *
+ * @author Vinay Selvaraj
+ */
+enum InventoryResourceType {
+
+  VPCS, SUBNETS, ROUTE_TABLES, INSTANCES, SECURITY_GROUPS, ADDRESSES, NETWORK_INTERFACES
+}
@@ -0,0 +1,162 @@
+package vpc2vpc;
+
+import com.amazonaws.services.ec2.model.Region;
+import com.amazonaws.services.ec2.model.RouteTable;
+import com.amazonaws.services.ec2.model.Subnet;
+import com.amazonaws.services.ec2.model.Vpc;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, indexed snapshot of the account's resources across all regions.
+ * VPC and subnet CIDR blocks are parsed once into prefix tries so lookups by
+ * block or by containment take at most 32 steps.
+ *
+ * @author Vinay Selvaraj
+ */
+public class InventorySnapshot {
+
+  private final long createdOn;
+  private final Map<Region, RegionInventory> regionInventories;
+  private final Map<String, Vpc> vpcIdMap;
+  private final Map<String, Subnet> subnetIdMap;
+  private final Map<String, Region> vpcIdRegionMap;
+  private final CidrTrie<Vpc> vpcCidrTrie = new CidrTrie<Vpc>();
+  private final CidrTrie<Subnet> subnetCidrTrie = new CidrTrie<Subnet>();
+  private final Map<String, List<RouteTable>> vpcIdRouteTableMap;
+
+  public InventorySnapshot(Collection<RegionInventory> inventories, long createdOn) {
+    this.createdOn = createdOn;
+
+    Map<Region, RegionInventory> regionMap = new LinkedHashMap();
+    HashMap<String, Vpc> vpcIds = new HashMap();
+    HashMap<String, Subnet> subnetIds = new HashMap();
+    HashMap<String, Region> vpcRegions = new HashMap();
+    HashMap<String, List<RouteTable>> vpcRouteTables = new HashMap();
+
+    for (RegionInventory inventory : inventories) {
+      Region region = inventory.getRegion();
+      regionMap.put(region, inventory);
+
+      for (Vpc vpc : inventory.getVpcs()) {
+        vpcIds.put(vpc.getVpcId(), vpc);
+        vpcRegions.put(vpc.getVpcId(), region);
+        Cidr cidr = Cidr.tryParse(vpc.getCidrBlock());
+        if (cidr != null) {
+          vpcCidrTrie.put(cidr, vpc);
+        }
+      }
+
+      for (Subnet subnet : inventory.getSubnets()) {
+        subnetIds.put(subnet.getSubnetId(), subnet);
+        Cidr cidr = Cidr.tryParse(subnet.getCidrBlock());
+        if (cidr != null) {
+          subnetCidrTrie.put(cidr, subnet);
+        }
+      }
+
+      for (RouteTable routeTable : inventory.getRouteTables()) {
+        addToList(vpcRouteTables, routeTable.getVpcId(), routeTable);
+      }
+    }
+
+    this.regionInventories = Collections.unmodifiableMap(regionMap);
+    this.vpcIdMap = Collections.unmodifiableMap(vpcIds);
+    this.subnetIdMap = Collections.unmodifiableMap(subnetIds);
+    this.vpcIdRegionMap = Collections.unmodifiableMap(vpcRegions);
+    this.vpcIdRouteTableMap = freezeLists(vpcRouteTables);
+  }
+
+  private static <T> void addToList(Map<String, List<T>> map, String key, T item) {
+    List<T> items = map.get(key);
+    if (items == null) {
+      items = new ArrayList();
+      map.put(key, items);
+    }
+    items.add(item);
+  }
+
+  private static <T> Map<String, List<T>> freezeLists(Map<String, List<T>> map) {
+    for (Map.Entry<String, List<T>> entry : map.entrySet()) {
+      entry.setValue(Collections.unmodifiableList(entry.getValue()));
+    }
+    return Collections.unmodifiableMap(map);
+  }
+
+  private static <T> List<T> nullToEmpty(List<T> items) {
+    if (items == null) {
+      return Collections.emptyList();
+    }
+    return items;
+  }
+
+  public long getCreatedOn() {
+    return createdOn;
+  }
+
+  public Collection<Region> getRegions() {
+    return regionInventories.keySet();
+  }
+
+  public Collection<RegionInventory> getRegionInventories() {
+    return regionInventories.values();
+  }
+
+  public RegionInventory getRegionInventory(Region region) {
+    return regionInventories.get(region);
+  }
+
+  public Collection<Vpc> getVpcs() {
+    return vpcIdMap.values();
+  }
+
+  public Collection<Subnet> getSubnets() {
+    return subnetIdMap.values();
+  }
+
+  public Vpc getVpc(String vpcId) {
+    return vpcIdMap.get(vpcId);
+  }
+
+  public Subnet getSubnet(String subnetId) {
+    return subnetIdMap.get(subnetId);
+  }
+
+  public Region getVpcRegion(String vpcId) {
+    return vpcIdRegionMap.get(vpcId);
+  }
+
+  public List<Vpc> getVpcsByCidr(Cidr cidr) {
+    return vpcCidrTrie.get(cidr);
+  }
+
+  public List<Subnet> getSubnetsByCidr(Cidr cidr) {
+    return subnetCidrTrie.get(cidr);
+  }
+
+  /**
+   * @param cidr
+   * @return the VPCs whose CIDR block is equal to or contains the block
+   */
+  public List<Vpc> getVpcsContaining(Cidr cidr) {
+    return vpcCidrTrie.getContaining(cidr);
+  }
+
+  /**
+   * @param cidr
+   * @return the subnets whose CIDR block is equal to or contains the block,
+   * least specific first
+   */
+  public List<Subnet> getSubnetsContaining(Cidr cidr) {
+    return subnetCidrTrie.getContaining(cidr);
+  }
+
+  public List<RouteTable> getVpcRouteTables(String vpcId) {
+    return nullToEmpty(vpcIdRouteTableMap.get(vpcId));
+  }
+}
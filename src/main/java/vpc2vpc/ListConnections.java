@@ -10,6 +10,7 @@ import java.util.HashMap;
 import java.util.List;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
@@ -35,6 +36,8 @@ public class ListConnections extends BaseAction {
     Options options = new Options();
     options.addOption("h", "help", false, "display the help message");
     options.addOption("v", "verbose", false, "be extra verbose");
+    options.addOption("r", "refresh", false, "ignore the local inventory cache");
+    options.addOption(null, "regions", true, "regions to use, separated by commas (default regions.allow)");
 
     CommandLineParser parser = new PosixParser();
     CommandLine cmd = null;
@@ -50,9 +53,19 @@ public class ListConnections extends BaseAction {
       if (cmd.hasOption("v")) {
         LogManager.getRootLogger().setLevel(Level.DEBUG);
       }
+
+      if (cmd.hasOption("h")) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("vpc2vpc list [options]", options);
+        System.exit(0);
+      }
+    }
+
+    if (!initAwsContext(cmd.getOptionValue("regions"), cmd.hasOption("r"))) {
+      System.exit(1);
     }
 
-    HashMap<String, VPC2VPCConnection> vpc2vpcIdConnections = VPC2VPCHelper.getInstance().getVPC2VPCConnections(awsCreds);
+    HashMap<String, VPC2VPCConnection> vpc2vpcIdConnections = VPC2VPCHelper.getInstance().getVPC2VPCConnections(awsCreds, InventoryHelper.getInstance().takeSnapshot(awsCreds, regions, cmd.hasOption("r")));
 
     for(String vpc2vpcId : vpc2vpcIdConnections.keySet()) {
       
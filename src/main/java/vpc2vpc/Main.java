@@ -12,7 +12,7 @@ import java.util.ArrayList;
 public class Main {
 
   private static void showHelp() {
-    System.out.println("SYNTAX: vpc2vpc <list|create|delete> [options]");
+    System.out.println("SYNTAX: vpc2vpc <list|create|delete|serve> [options]");
   }
 
   public static void main(String[] args) {
@@ -21,28 +21,33 @@ public class Main {
     validOptions.add("create");
     validOptions.add("list");
     validOptions.add("delete");
+    validOptions.add("serve");
 
     if (args.length == 0 || validOptions.contains(args[0]) == false) {
       showHelp();
       System.exit(1);
     }
 
-    // Get credentials
+    // Hand list, create and delete to a running vpc2vpc server if one is set
+    String serverUrl = System.getenv("VPC2VPC_SERVER");
+    if (serverUrl != null && serverUrl.trim().length() > 0 && !args[0].equals("serve")) {
+      String serverToken = System.getenv("VPC2VPC_SERVER_TOKEN");
+      if (serverToken == null || serverToken.trim().length() == 0) {
+        serverToken = ApplicationConfig.getInstance().getServerAuthToken();
+      }
+      System.exit(new ServerClient(serverUrl.trim(), serverToken == null ? null : serverToken.trim()).run(args));
+    }
+
+    // Get credentials.  The actions check for them once their arguments are
+    // valid, so -h works without them
     String accessKey = System.getenv("AWS_ACCESS_KEY_ID");
     String secretKey = System.getenv("AWS_SECRET_ACCESS_KEY");
 
-    if (accessKey == null || secretKey == null) {
-      System.err.println("Please set AWS_ACCESS_KEY_ID and AWS_SECRET_ACCESS_KEY environment variables");
-      System.exit(1);
-    }
-
+    AWSCredentials awsCreds = null;
     if (accessKey != null && secretKey != null) {
-      accessKey = accessKey.trim();
-      secretKey = secretKey.trim();
+      awsCreds = new BasicAWSCredentials(accessKey.trim(), secretKey.trim());
     }
 
-    AWSCredentials awsCreds = new BasicAWSCredentials(accessKey, secretKey);
-
     if (args[0].equals("list")) {
       new ListConnections(args, awsCreds).run();
     }
@@ -55,5 +60,9 @@ public class Main {
       new DeleteConnection(args, awsCreds).run();
     }
 
+    if (args[0].equals("serve")) {
+      new ConnectionServer(args, awsCreds).run();
+    }
+
   }
 }
@@ -0,0 +1,75 @@
+package vpc2vpc;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.services.ec2.model.DescribeRegionsResult;
+import com.amazonaws.services.ec2.model.Region;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.log4j.Logger;
+
+/**
+ * Resolves the region list at most once per account per process. The list
+ * is read from the InventoryCache when it has a fresh copy, otherwise it is
+ * described and written back.
+ *
+ * @author Vinay Selvaraj
+ */
+public class RegionCatalog {
+
+  private Logger LOG = Logger.getLogger(RegionCatalog.class);
+  private static final RegionCatalog instance = new RegionCatalog();
+  private ConcurrentMap<String, List<Region>> accountRegions = new ConcurrentHashMap();
+
+  private RegionCatalog() {
+  }
+
+  public static RegionCatalog getInstance() {
+    return instance;
+  }
+
+  public List<Region> getRegions(AWSCredentials awsCreds) {
+    return getRegions(awsCreds, false);
+  }
+
+  /**
+   * @param awsCreds
+   * @param refresh bypass the copy in the InventoryCache
+   * @return the regions of the account
+   */
+  public List<Region> getRegions(AWSCredentials awsCreds, boolean refresh) {
+    String accountKey = awsCreds.getAWSAccessKeyId();
+    List<Region> regions = accountRegions.get(accountKey);
+    if (regions != null) {
+      return regions;
+    }
+
+    synchronized (this) {
+      regions = accountRegions.get(accountKey);
+      if (regions != null) {
+        return regions;
+      }
+
+      InventoryCache inventoryCache = InventoryCache.getInstance();
+      regions = refresh ? null : inventoryCache.loadRegions(awsCreds);
+      if (regions != null) {
+        LOG.debug("Using cached region list");
+      } else {
+        regions = new ArrayList();
+        DescribeRegionsResult descRegionsResult = EC2ClientPool.getInstance().getClient(awsCreds).describeRegions();
+        if (descRegionsResult != null) {
+          regions = descRegionsResult.getRegions();
+        }
+        if (!regions.isEmpty()) {
+          inventoryCache.storeRegions(awsCreds, regions);
+        }
+      }
+
+      regions = Collections.unmodifiableList(new ArrayList<Region>(regions));
+      accountRegions.put(accountKey, regions);
+      return regions;
+    }
+  }
+}
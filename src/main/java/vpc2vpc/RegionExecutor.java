@@ -0,0 +1,244 @@
+package vpc2vpc;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.log4j.Logger;
+
+/**
+ * Shared, bounded executor for the calls vpc2vpc fans out across regions.
+ * Each call gets a timeout from the moment it starts running and the whole
+ * batch gets a deadline; a call which fails, overruns its timeout or is
+ * still pending at the deadline is reported in its Result instead of
+ * holding up the run or leaving an empty list behind.
+ *
+ * @author Vinay Selvaraj
+ */
+public class RegionExecutor {
+
+  /**
+   * Outcome of one call
+   */
+  public static class Result<T> {
+
+    private T value;
+    private Exception error;
+
+    private Result(T value, Exception error) {
+      this.value = value;
+      this.error = error;
+    }
+
+    public boolean isSuccessful() {
+      return error == null;
+    }
+
+    public boolean isTimedOut() {
+      return error instanceof TimeoutException;
+    }
+
+    public T getValue() {
+      return value;
+    }
+
+    public Exception getError() {
+      return error;
+    }
+
+    public String getErrorMessage() {
+      return error == null ? null : error.getMessage();
+    }
+  }
+
+  /**
+   * Records when the call starts, so the timeout does not include the time
+   * spent queued behind other calls
+   */
+  private class TimedCall<T> implements Callable<T> {
+
+    private Callable<T> call;
+    private volatile long startedOn;
+
+    private TimedCall(Callable<T> call) {
+      this.call = call;
+    }
+
+    public T call() throws Exception {
+      if (permits != null) {
+        permits.acquire();
+      }
+      try {
+        startedOn = System.currentTimeMillis();
+        return call.call();
+      } finally {
+        if (permits != null) {
+          permits.release();
+        }
+      }
+    }
+  }
+  private Logger LOG = Logger.getLogger(RegionExecutor.class);
+  private static final RegionExecutor instance = new RegionExecutor();
+  private final ExecutorService executor;
+  private final Semaphore permits;
+  private final long callTimeoutMillis;
+  private final long deadlineMillis;
+
+  private RegionExecutor() {
+    ApplicationConfig appConfig = ApplicationConfig.getInstance();
+    int threads = Math.max(1, appConfig.getRegionExecutorThreads());
+    callTimeoutMillis = appConfig.getRegionCallTimeoutMillis();
+    deadlineMillis = appConfig.getRegionDeadlineMillis();
+
+    ExecutorService virtualThreadExecutor = appConfig.isRegionVirtualThreads() ? newVirtualThreadExecutor() : null;
+    if (virtualThreadExecutor != null) {
+      // Virtual threads are not pooled, so the permits bound the calls instead
+      executor = virtualThreadExecutor;
+      permits = new Semaphore(threads);
+    } else {
+      final AtomicInteger threadCount = new AtomicInteger();
+      executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "region-executor-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      permits = null;
+    }
+  }
+
+  public static RegionExecutor getInstance() {
+    return instance;
+  }
+
+  public long getCallTimeoutMillis() {
+    return callTimeoutMillis;
+  }
+
+  public long getDeadlineMillis() {
+    return deadlineMillis;
+  }
+
+  /**
+   * Runs the workers with the configured call timeout and deadline
+   *
+   * @param workers the workers keyed by e.g. their region
+   * @return the result of each worker, in the order of the workers
+   */
+  public <K> Map<K, Result<Object>> runAll(Map<K, ? extends Runnable> workers) {
+    return runAll(workers, callTimeoutMillis, deadlineMillis);
+  }
+
+  /**
+   * Runs the workers and waits for them to complete, time out or reach the
+   * deadline
+   *
+   * @param workers the workers keyed by e.g. their region
+   * @param callTimeoutMillis how long each worker may run once it has started
+   * @param deadlineMillis how long to wait for all the workers
+   * @return the result of each worker, in the order of the workers
+   */
+  public <K> Map<K, Result<Object>> runAll(Map<K, ? extends Runnable> workers, long callTimeoutMillis, long deadlineMillis) {
+    Map<K, Callable<Object>> calls = new LinkedHashMap();
+    for (Map.Entry<K, ? extends Runnable> entry : workers.entrySet()) {
+      calls.put(entry.getKey(), Executors.callable(entry.getValue()));
+    }
+    return invokeAll(calls, callTimeoutMillis, deadlineMillis);
+  }
+
+  /**
+   * Runs the calls with the configured call timeout and deadline
+   *
+   * @param calls the calls keyed by e.g. their region
+   * @return the result of each call, in the order of the calls
+   */
+  public <K, T> Map<K, Result<T>> invokeAll(Map<K, ? extends Callable<T>> calls) {
+    return invokeAll(calls, callTimeoutMillis, deadlineMillis);
+  }
+
+  /**
+   * Runs the calls and waits for them to complete, time out or reach the
+   * deadline. Calls which time out are cancelled.
+   *
+   * @param calls the calls keyed by e.g. their region
+   * @param callTimeoutMillis how long each call may run once it has started
+   * @param deadlineMillis how long to wait for the whole batch
+   * @return the result of each call, in the order of the calls
+   */
+  public <K, T> Map<K, Result<T>> invokeAll(Map<K, ? extends Callable<T>> calls, long callTimeoutMillis, long deadlineMillis) {
+    long deadline = System.currentTimeMillis() + deadlineMillis;
+
+    List<K> keys = new ArrayList();
+    List<TimedCall<T>> timedCalls = new ArrayList();
+    List<Future<T>> futures = new ArrayList();
+    for (Map.Entry<K, ? extends Callable<T>> entry : calls.entrySet()) {
+      TimedCall<T> timedCall = new TimedCall<T>(entry.getValue());
+      keys.add(entry.getKey());
+      timedCalls.add(timedCall);
+      futures.add(executor.submit(timedCall));
+    }
+
+    Map<K, Result<T>> results = new LinkedHashMap();
+    for (int i = 0; i < futures.size(); i++) {
+      Result<T> result = await(keys.get(i), timedCalls.get(i), futures.get(i), callTimeoutMillis, deadline);
+      results.put(keys.get(i), result);
+    }
+    return results;
+  }
+
+  private <T> Result<T> await(Object key, TimedCall<T> timedCall, Future<T> future, long callTimeoutMillis, long deadline) {
+    while (true) {
+      long now = System.currentTimeMillis();
+      long startedOn = timedCall.startedOn;
+      long wait = Math.min(deadline - now, startedOn > 0 ? startedOn + callTimeoutMillis - now : callTimeoutMillis);
+      try {
+        return new Result<T>(future.get(Math.max(0, wait), TimeUnit.MILLISECONDS), null);
+      } catch (TimeoutException e) {
+        now = System.currentTimeMillis();
+        startedOn = timedCall.startedOn;
+        if (now >= deadline || (startedOn > 0 && now - startedOn >= callTimeoutMillis)) {
+          future.cancel(true);
+          String msg = now >= deadline ? "Not completed by the deadline" : "Timed out after " + (now - startedOn) + "ms";
+          LOG.debug(key + ": " + msg);
+          return new Result<T>(null, new TimeoutException(msg));
+        }
+        // Still queued, or started during the wait
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        return new Result<T>(null, cause instanceof Exception ? (Exception) cause : new RuntimeException(cause));
+      } catch (InterruptedException e) {
+        future.cancel(true);
+        Thread.currentThread().interrupt();
+        return new Result<T>(null, e);
+      }
+    }
+  }
+
+  /**
+   * Uses Executors.newVirtualThreadPerTaskExecutor on JVMs which have it
+   *
+   * @return the executor, or null if virtual threads are not available
+   */
+  private ExecutorService newVirtualThreadExecutor() {
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    } catch (Exception e) {
+      LOG.warn("Virtual threads are not available on this JVM, using a thread pool");
+      return null;
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package vpc2vpc;
+
+import com.amazonaws.services.ec2.model.Region;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Selects the regions vpc2vpc sweeps. Regions are named exactly or by a
+ * prefix ending in '*', e.g. "us-*", and a region on the deny list is never
+ * selected.
+ *
+ * @author Vinay Selvaraj
+ */
+public class RegionFilter {
+
+  private List<String> allowed;
+  private List<String> denied;
+
+  /**
+   * @param allowed region names or patterns, or null to allow every region
+   * @param denied region names or patterns
+   */
+  public RegionFilter(Collection<String> allowed, Collection<String> denied) {
+    this.allowed = allowed == null ? null : new ArrayList<String>(allowed);
+    this.denied = denied == null ? Collections.<String>emptyList() : new ArrayList<String>(denied);
+  }
+
+  /**
+   * Builds the filter from regions.allow and regions.deny. When regions.allow
+   * is not set only the regions with an ami.&lt;region&gt; entry are allowed,
+   * as vpc2vpc cannot launch instances anywhere else.
+   *
+   * @param regionsArg the --regions option, which replaces regions.allow, or
+   * null
+   * @return
+   */
+  public static RegionFilter fromConfig(String regionsArg) {
+    ApplicationConfig appConfig = ApplicationConfig.getInstance();
+    List<String> allowed;
+    if (regionsArg != null) {
+      allowed = split(regionsArg);
+    } else if (appConfig.getRegionAllowList() != null) {
+      allowed = appConfig.getRegionAllowList();
+    } else {
+      allowed = new ArrayList<String>(appConfig.getAmiRegionNames());
+    }
+    return new RegionFilter(allowed, appConfig.getRegionDenyList());
+  }
+
+  /**
+   * @param regionList region names or patterns separated by commas or spaces
+   * @return
+   */
+  public static List<String> split(String regionList) {
+    List<String> regionNames = new ArrayList();
+    for (String regionName : regionList.split("[,\\s]+")) {
+      if (regionName.length() > 0) {
+        regionNames.add(regionName);
+      }
+    }
+    return regionNames;
+  }
+
+  public boolean accepts(String regionName) {
+    return (allowed == null || matches(allowed, regionName)) && !matches(denied, regionName);
+  }
+
+  /**
+   * @param regions
+   * @return the accepted regions, in their original order
+   */
+  public List<Region> filter(List<Region> regions) {
+    List<Region> accepted = new ArrayList();
+    for (Region region : regions) {
+      if (accepts(region.getRegionName())) {
+        accepted.add(region);
+      }
+    }
+    return accepted;
+  }
+
+  /**
+   * @param regions
+   * @return the allowed names and patterns which match none of the regions,
+   * e.g. typos
+   */
+  public List<String> getUnmatched(List<Region> regions) {
+    List<String> unmatched = new ArrayList();
+    if (allowed == null) {
+      return unmatched;
+    }
+    for (String pattern : allowed) {
+      boolean matched = false;
+      for (Region region : regions) {
+        if (matches(pattern, region.getRegionName())) {
+          matched = true;
+          break;
+        }
+      }
+      if (!matched) {
+        unmatched.add(pattern);
+      }
+    }
+    return unmatched;
+  }
+
+  private static boolean matches(List<String> patterns, String regionName) {
+    for (String pattern : patterns) {
+      if (matches(pattern, regionName)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean matches(String pattern, String regionName) {
+    if (pattern.endsWith("*")) {
+      return regionName.startsWith(pattern.substring(0, pattern.length() - 1));
+    }
+    return regionName.equals(pattern);
+  }
+
+  @Override
+  public String toString() {
+    return "allow " + (allowed == null ? "*" : allowed) + ", deny " + denied;
+  }
+}
@@ -0,0 +1,96 @@
+package vpc2vpc;
+
+import com.amazonaws.services.ec2.model.Address;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.NetworkInterface;
+import com.amazonaws.services.ec2.model.Region;
+import com.amazonaws.services.ec2.model.RouteTable;
+import com.amazonaws.services.ec2.model.SecurityGroup;
+import com.amazonaws.services.ec2.model.Subnet;
+import com.amazonaws.services.ec2.model.Vpc;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable view of the resources found in a single region
+ *
+ * @author Vinay Selvaraj
+ */
+public class RegionInventory implements Serializable {
+
+  private static final long serialVersionUID = 2L;
+  private final Region region;
+  private final long fetchedOn;
+  private final List<Vpc> vpcs;
+  private final List<Subnet> subnets;
+  private final List<RouteTable> routeTables;
+  private final List<Instance> instances;
+  private final List<SecurityGroup> securityGroups;
+  private final List<Address> addresses;
+  private final List<NetworkInterface> networkInterfaces;
+
+  public RegionInventory(Region region, List<Vpc> vpcs, List<Subnet> subnets,
+          List<RouteTable> routeTables, List<Instance> instances,
+          List<SecurityGroup> securityGroups, List<Address> addresses,
+          List<NetworkInterface> networkInterfaces, long fetchedOn) {
+    this.region = region;
+    this.fetchedOn = fetchedOn;
+    this.vpcs = freeze(vpcs);
+    this.subnets = freeze(subnets);
+    this.routeTables = freeze(routeTables);
+    this.instances = freeze(instances);
+    this.securityGroups = freeze(securityGroups);
+    this.addresses = freeze(addresses);
+    this.networkInterfaces = freeze(networkInterfaces);
+  }
+
+  private static <T> List<T> freeze(List<T> items) {
+    if (items == null) {
+      return Collections.emptyList();
+    }
+    return Collections.unmodifiableList(new ArrayList<T>(items));
+  }
+
+  public Region getRegion() {
+    return region;
+  }
+
+  public long getFetchedOn() {
+    return fetchedOn;
+  }
+
+  public List<Vpc> getVpcs() {
+    return vpcs;
+  }
+
+  public List<Subnet> getSubnets() {
+    return subnets;
+  }
+
+  public List<RouteTable> getRouteTables() {
+    return routeTables;
+  }
+
+  /**
+   * Returns the running instances tagged by vpc2vpc
+   *
+   * @return
+   */
+  public List<Instance> getInstances() {
+    return instances;
+  }
+
+  public List<SecurityGroup> getSecurityGroups() {
+    return securityGroups;
+  }
+
+  public List<Address> getAddresses() {
+    return addresses;
+  }
+
+  public List<NetworkInterface> getNetworkInterfaces() {
+    return networkInterfaces;
+  }
+}
@@ -0,0 +1,83 @@
+package vpc2vpc;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.services.ec2.model.Address;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.NetworkInterface;
+import com.amazonaws.services.ec2.model.Region;
+import com.amazonaws.services.ec2.model.RouteTable;
+import com.amazonaws.services.ec2.model.SecurityGroup;
+import com.amazonaws.services.ec2.model.Subnet;
+import com.amazonaws.services.ec2.model.Vpc;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Accumulates the describe results for one region
+ *
+ * @author Vinay Selvaraj
+ */
+class RegionInventoryCollector {
+
+  private AWSCredentials awsCreds;
+  private Region region;
+  private volatile boolean failed;
+  private Set<InventoryResourceType> collectedTypes = Collections.synchronizedSet(EnumSet.noneOf(InventoryResourceType.class));
+  List<Vpc> vpcs = Collections.synchronizedList(new ArrayList<Vpc>());
+  List<Subnet> subnets = Collections.synchronizedList(new ArrayList<Subnet>());
+  List<RouteTable> routeTables = Collections.synchronizedList(new ArrayList<RouteTable>());
+  List<Instance> instances = Collections.synchronizedList(new ArrayList<Instance>());
+  List<SecurityGroup> securityGroups = Collections.synchronizedList(new ArrayList<SecurityGroup>());
+  List<Address> addresses = Collections.synchronizedList(new ArrayList<Address>());
+  List<NetworkInterface> networkInterfaces = Collections.synchronizedList(new ArrayList<NetworkInterface>());
+
+  public RegionInventoryCollector(AWSCredentials awsCreds, Region region) {
+    this.awsCreds = awsCreds;
+    this.region = region;
+  }
+
+  public Region getRegion() {
+    return region;
+  }
+
+  public Runnable newWorker(InventoryResourceType resourceType) {
+    collectedTypes.add(resourceType);
+    return new DescribeResourceRunnable(awsCreds, region, resourceType, this);
+  }
+
+  public void setFailed() {
+    failed = true;
+  }
+
+  public boolean hasFailed() {
+    return failed;
+  }
+
+  /**
+   * @param previous inventory to take the types that were not collected
+   * from, may be null
+   * @return
+   */
+  public RegionInventory toRegionInventory(RegionInventory previous) {
+    if (previous != null) {
+      return new RegionInventory(region,
+              pick(InventoryResourceType.VPCS, vpcs, previous.getVpcs()),
+              pick(InventoryResourceType.SUBNETS, subnets, previous.getSubnets()),
+              pick(InventoryResourceType.ROUTE_TABLES, routeTables, previous.getRouteTables()),
+              pick(InventoryResourceType.INSTANCES, instances, previous.getInstances()),
+              pick(InventoryResourceType.SECURITY_GROUPS, securityGroups, previous.getSecurityGroups()),
+              pick(InventoryResourceType.ADDRESSES, addresses, previous.getAddresses()),
+              pick(InventoryResourceType.NETWORK_INTERFACES, networkInterfaces, previous.getNetworkInterfaces()),
+              System.currentTimeMillis());
+    }
+    return new RegionInventory(region, vpcs, subnets, routeTables, instances,
+            securityGroups, addresses, networkInterfaces, System.currentTimeMillis());
+  }
+
+  private <T> List<T> pick(InventoryResourceType resourceType, List<T> collected, List<T> previous) {
+    return collectedTypes.contains(resourceType) ? collected : previous;
+  }
+}
@@ -0,0 +1,70 @@
+package vpc2vpc;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Caps the number of tasks running against each region at once, so a large
+ * batch does not flood a single region's API endpoint. A task over the cap
+ * is queued here rather than started, and each region's queue is served in
+ * FIFO order as running tasks finish, so no executor thread ever waits for a
+ * permit.
+ *
+ * @author Vinay Selvaraj
+ */
+public class RegionLimiter implements TaskGraph.Limiter {
+
+  private int maxConcurrency;
+  private Map<String, Integer> runningCounts = new HashMap();
+  private Map<String, LinkedList<Runnable>> queuedStarts = new HashMap();
+
+  public RegionLimiter(int maxConcurrency) {
+    this.maxConcurrency = Math.max(1, maxConcurrency);
+  }
+
+  /**
+   * Starts the task now if the region has room, otherwise queues it
+   *
+   * @param regionName
+   * @param start
+   */
+  public void admit(String regionName, Runnable start) {
+    synchronized (this) {
+      Integer runningCount = runningCounts.get(regionName);
+      if (runningCount == null) {
+        runningCount = 0;
+      }
+      if (runningCount >= maxConcurrency) {
+        LinkedList<Runnable> queue = queuedStarts.get(regionName);
+        if (queue == null) {
+          queue = new LinkedList();
+          queuedStarts.put(regionName, queue);
+        }
+        queue.add(start);
+        return;
+      }
+      runningCounts.put(regionName, runningCount + 1);
+    }
+    start.run();
+  }
+
+  /**
+   * Hands the finished task's slot to the next queued task for the region,
+   * if there is one
+   *
+   * @param regionName
+   */
+  public void release(String regionName) {
+    Runnable next;
+    synchronized (this) {
+      LinkedList<Runnable> queue = queuedStarts.get(regionName);
+      next = (queue == null) ? null : queue.poll();
+      if (next == null) {
+        runningCounts.put(regionName, runningCounts.get(regionName) - 1);
+        return;
+      }
+    }
+    next.run();
+  }
+}
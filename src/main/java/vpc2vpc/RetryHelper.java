@@ -0,0 +1,73 @@
+package vpc2vpc;
+
+import com.amazonaws.AmazonServiceException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import org.apache.log4j.Logger;
+
+/**
+ * Retries EC2 calls that fail because AWS still considers a resource to be in
+ * use, e.g. an EIP or security group of an instance that was just
+ * terminated. The first retry happens quickly and the delay doubles up to a
+ * maximum, until the call succeeds or the deadline passes.
+ *
+ * @author Vinay Selvaraj
+ */
+public class RetryHelper {
+
+  public static final Set<String> DEPENDENCY_ERROR_CODES = new HashSet<String>(Arrays.asList(
+          "DependencyViolation",
+          "InvalidIPAddress.InUse",
+          "InvalidGroup.InUse"));
+  private Logger LOG = Logger.getLogger(RetryHelper.class);
+  private static final RetryHelper instance = new RetryHelper();
+  private long initialDelayMillis = 1000;
+  private long maxDelayMillis = 8 * 1000;
+  private final long timeoutMillis;
+
+  private RetryHelper() {
+    timeoutMillis = ApplicationConfig.getInstance().getRetryDependencyTimeoutMillis();
+  }
+
+  public static RetryHelper getInstance() {
+    return instance;
+  }
+
+  /**
+   * Runs the call, retrying while it fails with one of the dependency error
+   * codes. Any other error, or the last dependency error once the deadline
+   * has passed, is thrown to the caller.
+   *
+   * @param description used in the log messages
+   * @param call
+   * @return the result of the call
+   * @throws Exception
+   */
+  public <T> T retryOnDependencyError(String description, Callable<T> call) throws Exception {
+    long endTime = System.currentTimeMillis() + timeoutMillis;
+    long delayMillis = initialDelayMillis;
+    int attempt = 1;
+
+    while (true) {
+      try {
+        return call.call();
+      } catch (AmazonServiceException e) {
+        if (!DEPENDENCY_ERROR_CODES.contains(e.getErrorCode())) {
+          throw e;
+        }
+        long remainingMillis = endTime - System.currentTimeMillis();
+        if (remainingMillis <= 0) {
+          LOG.debug("Giving up on " + description + " after " + attempt + " attempts");
+          throw e;
+        }
+        LOG.debug("Attempt " + attempt + " of " + description + " failed with " + e.getErrorCode()
+                + ".  Retrying in " + delayMillis + "ms");
+        Thread.sleep(Math.min(delayMillis, remainingMillis));
+        delayMillis = Math.min(delayMillis * 2, maxDelayMillis);
+        attempt++;
+      }
+    }
+  }
+}
@@ -4,17 +4,19 @@ import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.model.DeleteRouteRequest;
 import com.amazonaws.services.ec2.model.DeleteSecurityGroupRequest;
-import com.amazonaws.services.ec2.model.DescribeInstanceStatusRequest;
-import com.amazonaws.services.ec2.model.DescribeInstanceStatusResult;
-import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
-import com.amazonaws.services.ec2.model.Instance;
-import com.amazonaws.services.ec2.model.InstanceStatus;
+import com.amazonaws.services.ec2.model.Region;
 import com.amazonaws.services.ec2.model.ReleaseAddressRequest;
-import com.amazonaws.services.ec2.model.Reservation;
 import com.amazonaws.services.ec2.model.Route;
-import com.amazonaws.services.ec2.model.RouteTable;
 import com.amazonaws.services.ec2.model.TerminateInstancesRequest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.apache.log4j.Logger;
 
 /**
@@ -24,153 +26,249 @@ import org.apache.log4j.Logger;
  */
 public class RollbackHelper {
 
+  public static final String ROUTE = "route";
+  public static final String INSTANCE = "instance";
+  public static final String ELASTIC_IP = "elastic-ip";
+  public static final String SECURITY_GROUP = "security-group";
+  public static final String REGION = "region";
   private Logger LOG = Logger.getLogger(RollbackHelper.class);
-  private static RollbackHelper instance;
+  private static final RollbackHelper instance = new RollbackHelper();
 
   private RollbackHelper() {
   }
 
   public static RollbackHelper getInstance() {
-    if (instance == null) {
-      instance = new RollbackHelper();
-    }
     return instance;
   }
 
-  public void rollback(AWSCredentials awsCreds, List<VPNEndpoint> vpnEndpoints, boolean showStatus) {
-    AmazonEC2Client ec2Client = new AmazonEC2Client(awsCreds);
+  /**
+   * Removes the routes, instances, EIPs and security groups of the endpoints.
+   * The endpoints are partitioned by region and each region is cleaned up by
+   * its own worker, concurrently with the other regions.
+   *
+   * @param awsCreds
+   * @param vpnEndpoints
+   * @param showStatus
+   * @return the outcome of each clean up step
+   */
+  public RollbackResult rollback(final AWSCredentials awsCreds, List<VPNEndpoint> vpnEndpoints, final boolean showStatus) {
+
+    final RollbackResult result = new RollbackResult();
 
+    Map<Region, List<VPNEndpoint>> regionEndpoints = new LinkedHashMap();
     for (VPNEndpoint vpnEndpoint : vpnEndpoints) {
-      ec2Client.setEndpoint(vpnEndpoint.getRegion().getEndpoint());
+      if (vpnEndpoint.getRegion() == null) {
+        continue;
+      }
+      List<VPNEndpoint> endpoints = regionEndpoints.get(vpnEndpoint.getRegion());
+      if (endpoints == null) {
+        endpoints = new ArrayList();
+        regionEndpoints.put(vpnEndpoint.getRegion(), endpoints);
+      }
+      endpoints.add(vpnEndpoint);
+    }
+
+    if (showStatus) {
+      LOG.info("Deleting VPN instances and waiting on them to terminate..");
+    }
+
+    Map<Region, Runnable> workers = new LinkedHashMap();
+    for (final Map.Entry<Region, List<VPNEndpoint>> entry : regionEndpoints.entrySet()) {
+      workers.put(entry.getKey(), new Runnable() {
+        public void run() {
+          rollbackRegion(awsCreds, entry.getKey(), entry.getValue(), showStatus, result);
+        }
+      });
+    }
+
+    // A region's clean up includes waiting on its instances to terminate and
+    // retrying the EIPs and security groups they still hold
+    RegionExecutor regionExecutor = RegionExecutor.getInstance();
+    ApplicationConfig appConfig = ApplicationConfig.getInstance();
+    long regionTimeoutMillis = regionExecutor.getCallTimeoutMillis() + appConfig.getWaitTerminatedTimeoutMillis()
+            + 2 * appConfig.getRetryDependencyTimeoutMillis();
+    Map<Region, RegionExecutor.Result<Object>> regionResults = regionExecutor.runAll(workers,
+            regionTimeoutMillis, Math.max(regionTimeoutMillis, regionExecutor.getDeadlineMillis()));
+    for (Map.Entry<Region, RegionExecutor.Result<Object>> entry : regionResults.entrySet()) {
+      if (!entry.getValue().isSuccessful()) {
+        String regionName = entry.getKey().getRegionName();
+        LOG.error("Unable to complete the rollback in " + regionName + ": " + entry.getValue().getErrorMessage());
+        result.addFailure(regionName, REGION, regionName, entry.getValue().getError());
+      }
+    }
 
-      LOG.debug("Rolling back changes in " + vpnEndpoint.getRegion().getRegionName());
+    for (RollbackResult.Outcome outcome : result.getOutcomes()) {
+      LOG.debug(outcome);
+    }
+
+    return result;
+  }
+
+  /**
+   * Cleans up the endpoints of a single region
+   */
+  private void rollbackRegion(AWSCredentials awsCreds, Region region, List<VPNEndpoint> vpnEndpoints,
+          boolean showStatus, RollbackResult result) {
+
+    String regionName = region.getRegionName();
+    AmazonEC2Client ec2Client = EC2ClientPool.getInstance().getClient(awsCreds, region);
+    LOG.debug("Rolling back changes in " + regionName);
+
+    // Remove Route Table entries that were created
+    List<String> instanceIds = new ArrayList();
+    Set<String> vpcIds = new HashSet();
+    for (VPNEndpoint vpnEndpoint : vpnEndpoints) {
+      if (vpnEndpoint.getInstance() != null) {
+        instanceIds.add(vpnEndpoint.getInstance().getInstanceId());
+        if (vpnEndpoint.getVpc() != null) {
+          vpcIds.add(vpnEndpoint.getVpc().getVpcId());
+        }
+      }
+    }
 
-      // Remove Route Table entries that were created
+    if (!instanceIds.isEmpty()) {
       try {
-        List<RouteTable> routeTables = ec2Client.describeRouteTables().getRouteTables();
-        LOG.debug("Found " + routeTables.size() + " route tables in " + vpnEndpoint.getRegion().getRegionName());
-        for (RouteTable routeTable : routeTables) {
-          List<Route> routes = routeTable.getRoutes();
-          for (Route route : routes) {
-            LOG.debug("Checking if route is for vpc2vpc: " + route);
-
-            String routeInstanceId = route.getInstanceId();
-            if (routeInstanceId != null && routeInstanceId.equals(vpnEndpoint.getInstance().getInstanceId())) {
-              DeleteRouteRequest deleteRouteRequest = new DeleteRouteRequest();
-              deleteRouteRequest.setRouteTableId(routeTable.getRouteTableId());
-              deleteRouteRequest.setDestinationCidrBlock(route.getDestinationCidrBlock());
-              LOG.debug("About to delete route to " + route.getDestinationCidrBlock() + " from " + vpnEndpoint.getVpc());
-              ec2Client.deleteRoute(deleteRouteRequest);
-              LOG.debug("Deleted route");
-            }
+        RouteTableIndex routeTableIndex = RouteTableIndex.loadForInstances(ec2Client, vpcIds, instanceIds);
+        for (String instanceId : instanceIds) {
+          for (RouteTableIndex.TableRoute tableRoute : routeTableIndex.getInstanceRoutes(instanceId)) {
+            deleteRoute(ec2Client, regionName, tableRoute.getRouteTableId(), tableRoute.getRoute(), result);
           }
         }
-
       } catch (Exception e) {
-        LOG.debug("Caught exception during rollback while deleting route table: " + e.getMessage());
+        result.addFailure(regionName, ROUTE, "*", e);
       }
+    }
 
-      // Remove EC2 instance if one exists
-      if (showStatus) {
-        try {
+    // Remove EC2 instances if any exist
+    if (showStatus) {
+      for (VPNEndpoint vpnEndpoint : vpnEndpoints) {
+        if (vpnEndpoint.getVpc() != null) {
           LOG.info(String.format("Deleting VPN instances in %s/%s (%s)",
                   vpnEndpoint.getVpc().getCidrBlock(),
                   vpnEndpoint.getVpc().getVpcId(),
-                  vpnEndpoint.getRegion().getRegionName()));
-        } catch (Exception e) {
-          // Eat it
-          LOG.debug("Ignoring exception: " + e.getMessage());
+                  regionName));
         }
       }
+    }
+
+    if (!instanceIds.isEmpty()) {
       try {
-        if (vpnEndpoint.getInstance() != null) {
-          Instance ec2Instance = vpnEndpoint.getInstance();
-          TerminateInstancesRequest request = new TerminateInstancesRequest().withInstanceIds(ec2Instance.getInstanceId());
-          ec2Client.terminateInstances(request);
-          LOG.debug("Sent request to terminate EC2 instance: " + ec2Instance.getInstanceId());
+        ec2Client.terminateInstances(new TerminateInstancesRequest().withInstanceIds(instanceIds));
+        LOG.debug("Sent request to terminate EC2 instances: " + instanceIds);
+
+        InstanceWaiter instanceWaiter = InstanceWaiter.getInstance();
+        if (instanceWaiter.waitForState(awsCreds, vpnEndpoints, InstanceWaiter.STATE_TERMINATED,
+                instanceWaiter.getTerminatedTimeoutMillis())) {
+          for (String instanceId : instanceIds) {
+            result.addSuccess(regionName, INSTANCE, instanceId);
+          }
+        } else {
+          for (String instanceId : instanceIds) {
+            result.addFailure(regionName, INSTANCE, instanceId, new RuntimeException("Timed out waiting on instance to terminate"));
+          }
         }
       } catch (Exception e) {
-        LOG.debug("Caught exception during rollback while terminating EC2 instance: " + e.getMessage());
+        for (String instanceId : instanceIds) {
+          result.addFailure(regionName, INSTANCE, instanceId, e);
+        }
       }
     }
 
-    if (showStatus) {
-      LOG.info("Waiting on instances to terminate..");
-    }
-
-    int timeoutInMinutes = 10; // TODO: Remove hardcoding and put in config
-    long startTime = System.currentTimeMillis();
-    long endTime = startTime + (timeoutInMinutes * 60 * 1000);
-    boolean waitDone = false;
-    while (!waitDone && (System.currentTimeMillis() < endTime)) {
+    // AWS may still consider the EIPs and security groups to be in use by the
+    // instances that were just terminated, so these are retried until the
+    // dependencies are gone
+    releaseResources(ec2Client, regionName, vpnEndpoints, result);
+  }
 
-      waitDone = true;
+  /**
+   * Releases the EIPs and security groups of the endpoints concurrently. The
+   * releases get their own small pool, as waiting on sub-tasks queued behind
+   * the region workers on the RegionExecutor could deadlock it.
+   */
+  private void releaseResources(final AmazonEC2Client ec2Client, final String regionName,
+          List<VPNEndpoint> vpnEndpoints, final RollbackResult result) {
+    int maxThreads = ApplicationConfig.getInstance().getRollbackRegionMaxThreads();
+    int threads = Math.max(1, Math.min(vpnEndpoints.size(), maxThreads));
+    if (threads == 1) {
       for (VPNEndpoint vpnEndpoint : vpnEndpoints) {
-        try {
-          ec2Client.setEndpoint(vpnEndpoint.getRegion().getEndpoint());
-          String instanceId = vpnEndpoint.getInstance().getInstanceId();
-          DescribeInstancesRequest descInstancesReq = new DescribeInstancesRequest().withInstanceIds(instanceId);
-          List<Reservation> reservations = ec2Client.describeInstances(descInstancesReq).getReservations();
-          Instance ec2InstanceBeingDeleted = null;
-          if (reservations != null && reservations.size() > 0) {
-            ec2InstanceBeingDeleted = reservations.get(0).getInstances().get(0);
-            LOG.debug("Waiting on instances: " + ec2InstanceBeingDeleted.getInstanceId() + " state: " + ec2InstanceBeingDeleted.getState());
-            if (!ec2InstanceBeingDeleted.getState().getName().equals("terminated")) {
-              waitDone = false;
-            }
-          } else {
-            LOG.debug("Unable to find the status on the instance: " + instanceId);
-          }
-        } catch (Exception e) {
-          LOG.debug("Ignoring exception: " + e.getMessage());
-        }
+        releaseEndpointResources(ec2Client, regionName, vpnEndpoint, result);
       }
-      if (!waitDone) {
-        try {
-          Thread.sleep(15 * 1000);
-        } catch (Exception e) {
-          LOG.debug("Ignoring exception caught while sleeping");
-          // eat it
+      return;
+    }
+
+    List<Callable<Object>> releases = new ArrayList();
+    for (final VPNEndpoint vpnEndpoint : vpnEndpoints) {
+      releases.add(Executors.callable(new Runnable() {
+        public void run() {
+          releaseEndpointResources(ec2Client, regionName, vpnEndpoint, result);
         }
-      }
+      }));
     }
 
-    // TODO: USE RETRIES INSTEAD OF THIS SLEEP!
-    // This sleep is needed since sometimes the AWS API doesn't allow the 
-    // SG / EIP to be removed since it still thinks it is in use by the 
-    // instance(s) we just terminated
+    ExecutorService releaseExecutor = Executors.newFixedThreadPool(threads);
     try {
-      Thread.sleep(15 * 1000);
+      releaseExecutor.invokeAll(releases);
+    } catch (InterruptedException e) {
+      // The region worker timed out, so the releases are abandoned
+      LOG.debug("Interrupted releasing the resources in " + regionName);
+      Thread.currentThread().interrupt();
+    } finally {
+      releaseExecutor.shutdownNow();
+    }
+  }
+
+  private void deleteRoute(AmazonEC2Client ec2Client, String regionName, String routeTableId, Route route,
+          RollbackResult result) {
+    String routeId = routeTableId + ":" + route.getDestinationCidrBlock();
+    try {
+      DeleteRouteRequest deleteRouteRequest = new DeleteRouteRequest();
+      deleteRouteRequest.setRouteTableId(routeTableId);
+      deleteRouteRequest.setDestinationCidrBlock(route.getDestinationCidrBlock());
+      LOG.debug("About to delete route to " + route.getDestinationCidrBlock() + " from " + routeTableId);
+      ec2Client.deleteRoute(deleteRouteRequest);
+      result.addSuccess(regionName, ROUTE, routeId);
     } catch (Exception e) {
-      LOG.debug("Ignoring exception caught while sleeping");
-      // eat it
+      result.addFailure(regionName, ROUTE, routeId, e);
     }
+  }
 
-    for (VPNEndpoint vpnEndpoint : vpnEndpoints) {
-      ec2Client.setEndpoint(vpnEndpoint.getRegion().getEndpoint());
+  private void releaseEndpointResources(final AmazonEC2Client ec2Client, String regionName, VPNEndpoint vpnEndpoint,
+          RollbackResult result) {
+    RetryHelper retryHelper = RetryHelper.getInstance();
 
-      // Release Elastic / Public IPs if one exists
+    // Release Elastic / Public IPs if one exists
+    if (vpnEndpoint.getElasticIPAddress() != null && vpnEndpoint.getElasticIPAllocationId() != null) {
       try {
-        if (vpnEndpoint.getElasticIPAddress() != null && vpnEndpoint.getElasticIPAllocationId() != null) {
-          ReleaseAddressRequest request = new ReleaseAddressRequest().withAllocationId(vpnEndpoint.getElasticIPAllocationId());
-          LOG.debug("About to release elastic IP: " + request);
-          ec2Client.releaseAddress(request);
-          LOG.debug("Released elastic IP: " + vpnEndpoint.getElasticIPAddress());
-        } else {
-          LOG.debug("Unable to find the EIP Address or EIP Allocation ID");
-        }
+        final ReleaseAddressRequest request = new ReleaseAddressRequest().withAllocationId(vpnEndpoint.getElasticIPAllocationId());
+        LOG.debug("About to release elastic IP: " + request);
+        retryHelper.retryOnDependencyError("release of " + vpnEndpoint.getElasticIPAddress(), new Callable<Object>() {
+          public Object call() {
+            ec2Client.releaseAddress(request);
+            return null;
+          }
+        });
+        result.addSuccess(regionName, ELASTIC_IP, vpnEndpoint.getElasticIPAddress());
       } catch (Exception e) {
-        LOG.debug("Caught exception during rollback while releasing Elastic IPs: " + e.getMessage());
+        result.addFailure(regionName, ELASTIC_IP, vpnEndpoint.getElasticIPAddress(), e);
       }
+    } else {
+      LOG.debug("Unable to find the EIP Address or EIP Allocation ID");
+    }
 
-      // Remove VPC Security Groups that were created
+    // Remove VPC Security Groups that were created
+    if (vpnEndpoint.getSecurityGroupId() != null) {
       try {
-        DeleteSecurityGroupRequest deleteSecGrpReq = new DeleteSecurityGroupRequest();
+        final DeleteSecurityGroupRequest deleteSecGrpReq = new DeleteSecurityGroupRequest();
         deleteSecGrpReq.setGroupId(vpnEndpoint.getSecurityGroupId());
-        ec2Client.deleteSecurityGroup(deleteSecGrpReq);
-        LOG.debug("Deleted security group: " + vpnEndpoint.getSecurityGroupId());
+        retryHelper.retryOnDependencyError("deletion of " + vpnEndpoint.getSecurityGroupId(), new Callable<Object>() {
+          public Object call() {
+            ec2Client.deleteSecurityGroup(deleteSecGrpReq);
+            return null;
+          }
+        });
+        result.addSuccess(regionName, SECURITY_GROUP, vpnEndpoint.getSecurityGroupId());
       } catch (Exception e) {
-        LOG.debug("Caught exception during rollback while deleting security group: " + e.getMessage());
+        result.addFailure(regionName, SECURITY_GROUP, vpnEndpoint.getSecurityGroupId(), e);
       }
     }
   }
@@ -0,0 +1,89 @@
+package vpc2vpc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of each resource clean up attempted by a rollback. Outcomes may be
+ * added from several region workers at once.
+ *
+ * @author Vinay Selvaraj
+ */
+public class RollbackResult {
+
+  public static class Outcome {
+
+    private String regionName;
+    private String resourceType;
+    private String resourceId;
+    private boolean successful;
+    private String errorMessage;
+
+    public Outcome(String regionName, String resourceType, String resourceId, boolean successful, String errorMessage) {
+      this.regionName = regionName;
+      this.resourceType = resourceType;
+      this.resourceId = resourceId;
+      this.successful = successful;
+      this.errorMessage = errorMessage;
+    }
+
+    public String getRegionName() {
+      return regionName;
+    }
+
+    public String getResourceType() {
+      return resourceType;
+    }
+
+    public String getResourceId() {
+      return resourceId;
+    }
+
+    public boolean isSuccessful() {
+      return successful;
+    }
+
+    public String getErrorMessage() {
+      return errorMessage;
+    }
+
+    @Override
+    public String toString() {
+      if (successful) {
+        return String.format("%s %s (%s): deleted", resourceType, resourceId, regionName);
+      }
+      return String.format("%s %s (%s): FAILED - %s", resourceType, resourceId, regionName, errorMessage);
+    }
+  }
+
+  private List<Outcome> outcomes = Collections.synchronizedList(new ArrayList<Outcome>());
+
+  public void addSuccess(String regionName, String resourceType, String resourceId) {
+    outcomes.add(new Outcome(regionName, resourceType, resourceId, true, null));
+  }
+
+  public void addFailure(String regionName, String resourceType, String resourceId, Exception e) {
+    outcomes.add(new Outcome(regionName, resourceType, resourceId, false, e.getMessage()));
+  }
+
+  public List<Outcome> getOutcomes() {
+    synchronized (outcomes) {
+      return new ArrayList<Outcome>(outcomes);
+    }
+  }
+
+  public List<Outcome> getFailures() {
+    List<Outcome> failures = new ArrayList();
+    for (Outcome outcome : getOutcomes()) {
+      if (!outcome.isSuccessful()) {
+        failures.add(outcome);
+      }
+    }
+    return failures;
+  }
+
+  public boolean isSuccessful() {
+    return getFailures().isEmpty();
+  }
+}
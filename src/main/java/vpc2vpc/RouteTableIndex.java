@@ -0,0 +1,169 @@
+package vpc2vpc;
+
+import com.amazonaws.services.ec2.AmazonEC2Client;
+import com.amazonaws.services.ec2.model.DescribeRouteTablesRequest;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Route;
+import com.amazonaws.services.ec2.model.RouteTable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of route tables by VPC ID, of route destinations by VPC ID and of
+ * routes by the instance they target
+ *
+ * @author Vinay Selvaraj
+ */
+public class RouteTableIndex {
+
+  /**
+   * A route together with the ID of the route table it is in
+   */
+  public static class TableRoute {
+
+    private String routeTableId;
+    private Route route;
+
+    public TableRoute(String routeTableId, Route route) {
+      this.routeTableId = routeTableId;
+      this.route = route;
+    }
+
+    public String getRouteTableId() {
+      return routeTableId;
+    }
+
+    public Route getRoute() {
+      return route;
+    }
+  }
+
+  private Map<String, List<RouteTable>> vpcIdRouteTables = new HashMap();
+  private Map<String, List<TableRoute>> instanceIdRoutes = new HashMap();
+  private Map<String, CidrTrie<TableRoute>> vpcIdDestinations = new HashMap();
+
+  public RouteTableIndex(Collection<RouteTable> routeTables) {
+    for (RouteTable routeTable : routeTables) {
+      add(routeTable);
+    }
+  }
+
+  /**
+   * Loads the route tables of the VPCs which have a route targeting one of the
+   * instances with a single filtered describeRouteTables call
+   *
+   * @param ec2Client client for the region the instances are in
+   * @param vpcIds VPCs the instances are in
+   * @param instanceIds
+   * @return
+   */
+  public static RouteTableIndex loadForInstances(AmazonEC2Client ec2Client, Collection<String> vpcIds,
+          Collection<String> instanceIds) {
+    if (instanceIds.isEmpty()) {
+      return new RouteTableIndex(Collections.<RouteTable>emptyList());
+    }
+    List<Filter> filters = new ArrayList();
+    filters.add(new Filter("route.instance-id").withValues(instanceIds));
+    if (!vpcIds.isEmpty()) {
+      filters.add(new Filter("vpc-id").withValues(vpcIds));
+    }
+    DescribeRouteTablesRequest request = new DescribeRouteTablesRequest().withFilters(filters);
+    return new RouteTableIndex(ec2Client.describeRouteTables(request).getRouteTables());
+  }
+
+  /**
+   * Re-reads the route tables of the VPCs, all of which must be in the
+   * client's region, with one describeRouteTables call and replaces what the
+   * index holds for them
+   *
+   * @param ec2Client
+   * @param vpcIds
+   */
+  public synchronized void refreshVpcs(AmazonEC2Client ec2Client, Collection<String> vpcIds) {
+    if (vpcIds.isEmpty()) {
+      return;
+    }
+    DescribeRouteTablesRequest request = new DescribeRouteTablesRequest()
+            .withFilters(new Filter("vpc-id").withValues(vpcIds));
+    List<RouteTable> refreshedRouteTables = ec2Client.describeRouteTables(request).getRouteTables();
+
+    List<RouteTable> routeTables = new ArrayList();
+    for (Map.Entry<String, List<RouteTable>> entry : vpcIdRouteTables.entrySet()) {
+      if (!vpcIds.contains(entry.getKey())) {
+        routeTables.addAll(entry.getValue());
+      }
+    }
+    routeTables.addAll(refreshedRouteTables);
+
+    vpcIdRouteTables = new HashMap();
+    instanceIdRoutes = new HashMap();
+    vpcIdDestinations = new HashMap();
+    for (RouteTable routeTable : routeTables) {
+      add(routeTable);
+    }
+  }
+
+  private void add(RouteTable routeTable) {
+    List<RouteTable> routeTables = vpcIdRouteTables.get(routeTable.getVpcId());
+    if (routeTables == null) {
+      routeTables = new ArrayList();
+      vpcIdRouteTables.put(routeTable.getVpcId(), routeTables);
+    }
+    routeTables.add(routeTable);
+
+    CidrTrie<TableRoute> destinations = vpcIdDestinations.get(routeTable.getVpcId());
+    if (destinations == null) {
+      destinations = new CidrTrie<TableRoute>();
+      vpcIdDestinations.put(routeTable.getVpcId(), destinations);
+    }
+
+    for (Route route : routeTable.getRoutes()) {
+      Cidr destination = Cidr.tryParse(route.getDestinationCidrBlock());
+      if (destination != null) {
+        destinations.put(destination, new TableRoute(routeTable.getRouteTableId(), route));
+      }
+
+      String instanceId = route.getInstanceId();
+      if (instanceId != null) {
+        List<TableRoute> routes = instanceIdRoutes.get(instanceId);
+        if (routes == null) {
+          routes = new ArrayList();
+          instanceIdRoutes.put(instanceId, routes);
+        }
+        routes.add(new TableRoute(routeTable.getRouteTableId(), route));
+      }
+    }
+  }
+
+  public synchronized List<RouteTable> getVpcRouteTables(String vpcId) {
+    List<RouteTable> routeTables = vpcIdRouteTables.get(vpcId);
+    if (routeTables == null) {
+      return Collections.emptyList();
+    }
+    return routeTables;
+  }
+
+  /**
+   * @param vpcId
+   * @return the destinations of the routes in the VPC's route tables
+   */
+  public synchronized CidrTrie<TableRoute> getVpcRouteDestinations(String vpcId) {
+    CidrTrie<TableRoute> destinations = vpcIdDestinations.get(vpcId);
+    if (destinations == null) {
+      return new CidrTrie<TableRoute>();
+    }
+    return destinations;
+  }
+
+  public synchronized List<TableRoute> getInstanceRoutes(String instanceId) {
+    List<TableRoute> routes = instanceIdRoutes.get(instanceId);
+    if (routes == null) {
+      return Collections.emptyList();
+    }
+    return routes;
+  }
+}
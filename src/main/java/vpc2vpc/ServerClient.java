@@ -0,0 +1,296 @@
+package vpc2vpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Thin client which runs list, create and delete against a vpc2vpc server
+ * instead of talking to AWS directly
+ *
+ * @author Vinay Selvaraj
+ */
+public class ServerClient {
+
+  private Logger LOG = Logger.getLogger(ServerClient.class);
+  private ObjectMapper mapper = new ObjectMapper();
+  private String serverUrl;
+  private String authToken;
+
+  /**
+   * @param serverUrl e.g. http://127.0.0.1:8702
+   * @param authToken the server's auth token, or null if it doesn't use one
+   */
+  public ServerClient(String serverUrl, String authToken) {
+    this.serverUrl = serverUrl.endsWith("/") ? serverUrl.substring(0, serverUrl.length() - 1) : serverUrl;
+    this.authToken = authToken;
+  }
+
+  /**
+   * Runs the command on the server
+   *
+   * @param args
+   * @return the exit status
+   */
+  public int run(String[] args) {
+    Options options = new Options();
+    options.addOption("h", "help", false, "display the help message");
+    options.addOption("i", "vpc2vpcId", true, "IDs of the vpc2vpc connections to be deleted, separated by commas or spaces");
+    options.addOption("a", "all", false, "delete all vpc2vpc connections");
+    options.addOption("o", "older-than", true, "only delete connections created more than this long ago (e.g. 90m, 12h, 7d)");
+    options.addOption("m", "manifest", true, "create the connections listed in a file, one per line");
+    options.addOption("r", "refresh", false, "have the server re-describe its inventory first");
+    options.addOption(null, "regions", true, "regions to use, separated by commas (default regions.allow)");
+    options.addOption("t", "instance-type", true, "instance type (t1.micro, m1.small, etc..), default the server's instance.type");
+    options.addOption("v", "verbose", false, "be extra verbose");
+
+    CommandLine cmd;
+    try {
+      cmd = new PosixParser().parse(options, args);
+    } catch (ParseException pe) {
+      LOG.error("Unable to parse command: " + pe.getMessage());
+      return 1;
+    }
+
+    if (cmd.hasOption("v")) {
+      LogManager.getRootLogger().setLevel(Level.DEBUG);
+    }
+
+    if (cmd.hasOption("h")) {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp("vpc2vpc " + args[0] + " [options]", options);
+      return 0;
+    }
+
+    if (cmd.hasOption("regions")) {
+      LOG.warn("Ignoring --regions, the server uses the regions it was started with");
+    }
+
+    try {
+      if (args[0].equals("list")) {
+        return list(cmd.hasOption("r"));
+      } else if (args[0].equals("create")) {
+        return create(cmd);
+      } else if (args[0].equals("delete")) {
+        return delete(cmd);
+      }
+    } catch (IOException e) {
+      LOG.error("Unable to reach the vpc2vpc server at " + serverUrl + ": " + e.getMessage());
+    }
+    return 1;
+  }
+
+  private int list(boolean refresh) throws IOException {
+    Map<String, Object> response = call("GET", "/connections" + (refresh ? "?refresh=true" : ""), null);
+    if (response.get("connections") == null) {
+      LOG.error(response.get("error"));
+      return 1;
+    }
+
+    for (Map<String, Object> connection : (List<Map<String, Object>>) response.get("connections")) {
+      System.out.printf("%s : ", connection.get("id"));
+      List<Map<String, Object>> endpoints = (List<Map<String, Object>>) connection.get("endpoints");
+      for (int index = 0; index < endpoints.size(); index++) {
+        Map<String, Object> endpoint = endpoints.get(index);
+        System.out.printf("%s/%s(%s)", endpoint.get("cidr_block"), endpoint.get("vpc_id"), endpoint.get("region"));
+        if (index + 1 < endpoints.size()) {
+          System.out.printf(" <==> ");
+        } else {
+          System.out.printf(", ");
+        }
+      }
+      Number createdOn = (Number) connection.get("created_on");
+      System.out.printf("%s\n", createdOn == null ? null : new Date(createdOn.longValue()));
+    }
+    return 0;
+  }
+
+  private int create(CommandLine cmd) throws IOException {
+    // Validate the arguments the same way as a direct create
+    List<ConnectionPlan> plans;
+    if (cmd.hasOption("m")) {
+      try {
+        plans = ConnectionPlan.readManifest(cmd.getOptionValue("m"));
+      } catch (IOException e) {
+        LOG.error("Unable to read manifest " + cmd.getOptionValue("m") + ": " + e.getMessage());
+        return 1;
+      } catch (IllegalArgumentException e) {
+        LOG.error(e.getMessage());
+        return 1;
+      }
+    } else {
+      List<EndpointSpec> endpointSpecs = new ArrayList();
+      String[] positionalArgs = cmd.getArgs();
+      for (int i = 1; i < positionalArgs.length; i++) {
+        EndpointSpec endpointSpec = EndpointSpec.parse(positionalArgs[i]);
+        if (endpointSpec == null) {
+          LOG.error("Invalid endpoint " + positionalArgs[i] + ".  Use a VPC ID, subnet ID or CIDR block");
+          return 1;
+        }
+        endpointSpecs.add(endpointSpec);
+      }
+      plans = new ArrayList();
+      plans.add(new ConnectionPlan("command line", endpointSpecs));
+    }
+
+    List<List<String>> connections = new ArrayList();
+    for (ConnectionPlan plan : plans) {
+      if (plan.getEndpointSpecs().size() < 2) {
+        LOG.error(plan.getSource() + ": a connection needs two or more endpoints");
+        return 1;
+      }
+      connections.add(toStrings(plan.getEndpointSpecs()));
+    }
+
+    Map<String, Object> request = new LinkedHashMap();
+    request.put("connections", connections);
+    if (cmd.hasOption("t")) {
+      request.put("instance_type", cmd.getOptionValue("t"));
+    }
+    if (cmd.hasOption("r")) {
+      request.put("refresh", true);
+    }
+    Map<String, Object> response = call("POST", "/connections", request);
+    if (response.get("connections") == null) {
+      LOG.error(response.get("error"));
+      return 1;
+    }
+
+    for (Map<String, Object> result : (List<Map<String, Object>>) response.get("connections")) {
+      if (Boolean.TRUE.equals(result.get("created"))) {
+        LOG.info("vpc2vpc connection (" + result.get("id") + ") has been created.  Please allow 15 minutes for VPN to start");
+      }
+      for (Object error : (List<Object>) result.get("errors")) {
+        LOG.error(result.get("source") + ": " + error);
+      }
+    }
+    return Boolean.TRUE.equals(response.get("created")) ? 0 : 1;
+  }
+
+  private int delete(CommandLine cmd) throws IOException {
+    // A bad ID must not fall through to the -a or -o sweep
+    Set<String> vpc2vpcIds;
+    try {
+      vpc2vpcIds = DeleteConnection.parseIds(cmd);
+    } catch (IllegalArgumentException e) {
+      LOG.error(e.getMessage());
+      return 1;
+    }
+
+    if (vpc2vpcIds.isEmpty() && !cmd.hasOption("a") && !cmd.hasOption("o")) {
+      LOG.error("Please pass the IDs of the vpc2vpc connections with -i, or use -a or -o");
+      return 1;
+    }
+    if (cmd.hasOption("o") && DeleteConnection.parseDuration(cmd.getOptionValue("o")) < 0) {
+      LOG.error("Invalid age: " + cmd.getOptionValue("o") + ".  Use a number followed by s, m, h or d");
+      return 1;
+    }
+
+    Map<String, Object> request = new LinkedHashMap();
+    if (!vpc2vpcIds.isEmpty()) {
+      request.put("ids", new ArrayList<String>(vpc2vpcIds));
+    }
+    if (cmd.hasOption("a")) {
+      request.put("all", true);
+    }
+    if (cmd.hasOption("o")) {
+      request.put("older_than", cmd.getOptionValue("o"));
+    }
+    if (cmd.hasOption("r")) {
+      request.put("refresh", true);
+    }
+
+    Map<String, Object> response = call("POST", "/connections/delete", request);
+    if (response.get("outcomes") == null) {
+      LOG.error(response.get("error"));
+      return 1;
+    }
+
+    for (Map<String, Object> outcome : (List<Map<String, Object>>) response.get("outcomes")) {
+      if (!Boolean.TRUE.equals(outcome.get("successful"))) {
+        LOG.error("Unable to delete " + outcome.get("type") + " " + outcome.get("id") + " ("
+                + outcome.get("region") + "): " + outcome.get("error"));
+      }
+    }
+    if (!Boolean.TRUE.equals(response.get("deleted"))) {
+      return 1;
+    }
+
+    List<Object> deletedIds = (List<Object>) response.get("ids");
+    if (deletedIds == null || deletedIds.isEmpty()) {
+      LOG.info("No vpc2vpc connections to delete");
+    } else if (deletedIds.size() == 1) {
+      LOG.info("The vpc2vpc connection " + deletedIds.get(0) + " has been deleted");
+    } else {
+      LOG.info(deletedIds.size() + " vpc2vpc connections have been deleted");
+    }
+    return 0;
+  }
+
+  private List<String> toStrings(List<EndpointSpec> endpointSpecs) {
+    List<String> strings = new ArrayList();
+    for (EndpointSpec endpointSpec : endpointSpecs) {
+      strings.add(endpointSpec.getText());
+    }
+    return strings;
+  }
+
+  /**
+   * Sends the request and returns the JSON response, whatever its status
+   */
+  private Map<String, Object> call(String method, String path, Object request) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(serverUrl + path).openConnection();
+    connection.setRequestMethod(method);
+    if (authToken != null) {
+      connection.setRequestProperty(ConnectionServer.AUTH_TOKEN_HEADER, authToken);
+    }
+    if (request != null) {
+      connection.setDoOutput(true);
+      connection.setRequestProperty("Content-Type", "application/json");
+      OutputStream out = connection.getOutputStream();
+      try {
+        mapper.writeValue(out, request);
+      } finally {
+        out.close();
+      }
+    }
+
+    int status = connection.getResponseCode();
+    InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+    if (in == null) {
+      // e.g. a proxy or a server error without a body
+      connection.disconnect();
+      Map<String, Object> response = new LinkedHashMap();
+      response.put("error", "The server responded with HTTP " + status + " and no body");
+      return response;
+    }
+    try {
+      Map<String, Object> response = mapper.readValue(in, Map.class);
+      if (response == null) {
+        response = new LinkedHashMap();
+        response.put("error", "The server responded with HTTP " + status + " and an empty body");
+      }
+      return response;
+    } finally {
+      in.close();
+      connection.disconnect();
+    }
+  }
+}
@@ -0,0 +1,296 @@
+package vpc2vpc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.log4j.Logger;
+
+/**
+ * Runs a set of tasks with explicit dependencies between them. A task is
+ * started as soon as all the tasks it depends on have completed, so
+ * independent work is never held back by unrelated tasks.
+ *
+ * @author Vinay Selvaraj
+ */
+public class TaskGraph {
+
+  public interface Task {
+
+    public void run() throws Exception;
+  }
+
+  /**
+   * Decides when a ready task with a limit key may start. A limiter must not
+   * block: it either calls start straight away or keeps it and calls it once
+   * another task with the same key is released.
+   */
+  public interface Limiter {
+
+    public void admit(String key, Runnable start);
+
+    public void release(String key);
+  }
+
+  private Logger LOG = Logger.getLogger(TaskGraph.class);
+  private Map<String, Task> tasks = new LinkedHashMap();
+  private Map<String, List<String>> dependencies = new HashMap();
+  private Map<String, String> limitKeys = new HashMap();
+  private Set<String> waitTasks = new HashSet();
+
+  /**
+   * Adds a task to the graph
+   *
+   * @param name unique name of the task
+   * @param task
+   * @param dependsOn names of the tasks that must complete first
+   */
+  public void addTask(String name, Task task, List<String> dependsOn) {
+    if (tasks.containsKey(name)) {
+      throw new IllegalArgumentException("Duplicate task: " + name);
+    }
+    tasks.put(name, task);
+    dependencies.put(name, new ArrayList<String>(dependsOn));
+  }
+
+  public void addTask(String name, Task task, String... dependsOn) {
+    addTask(name, task, toList(dependsOn));
+  }
+
+  /**
+   * Adds a task which only starts once the limiter admits its key
+   *
+   * @param name unique name of the task
+   * @param limitKey key the task is limited under, e.g. a region name
+   * @param task
+   * @param dependsOn names of the tasks that must complete first
+   */
+  public void addLimitedTask(String name, String limitKey, Task task, List<String> dependsOn) {
+    addTask(name, task, dependsOn);
+    limitKeys.put(name, limitKey);
+  }
+
+  public void addLimitedTask(String name, String limitKey, Task task, String... dependsOn) {
+    addLimitedTask(name, limitKey, task, toList(dependsOn));
+  }
+
+  /**
+   * Adds a task which spends most of its time waiting, such as polling for
+   * instances to start. It runs on the wait executor so it does not hold one
+   * of the task executor's threads.
+   *
+   * @param name unique name of the task
+   * @param task
+   * @param dependsOn names of the tasks that must complete first
+   */
+  public void addWaitTask(String name, Task task, List<String> dependsOn) {
+    addTask(name, task, dependsOn);
+    waitTasks.add(name);
+  }
+
+  private List<String> toList(String... dependsOn) {
+    List<String> dependsOnList = new ArrayList();
+    for (String dependency : dependsOn) {
+      dependsOnList.add(dependency);
+    }
+    return dependsOnList;
+  }
+
+  /**
+   * Runs all the tasks on the given executor, which may be shared with other
+   * graphs. The calling thread waits for the tasks to complete, so it must
+   * not be one of the executor's threads. If a task fails no new tasks are
+   * started; the tasks already running are allowed to finish and then the
+   * first failure is thrown. A graph with unknown dependencies or a
+   * dependency cycle is rejected before any task is started.
+   *
+   * @param executor
+   * @throws Exception
+   */
+  public void execute(ExecutorService executor) throws Exception {
+    execute(executor, executor, null);
+  }
+
+  /**
+   * Runs all the tasks as above. Wait tasks run on the wait executor, and a
+   * ready limited task is handed to the limiter instead of being submitted,
+   * so it stays queued rather than occupying an executor thread until its
+   * key has room.
+   *
+   * @param executor
+   * @param waitExecutor
+   * @param limiter may be null if the graph has no limited tasks
+   * @throws Exception
+   */
+  public void execute(ExecutorService executor, ExecutorService waitExecutor, Limiter limiter) throws Exception {
+
+    // Count the unfinished dependencies of each task and find its dependents
+    Map<String, Integer> pendingCounts = new HashMap();
+    Map<String, List<String>> dependents = new HashMap();
+    for (String name : tasks.keySet()) {
+      dependents.put(name, new ArrayList<String>());
+    }
+    for (String name : tasks.keySet()) {
+      List<String> dependsOn = dependencies.get(name);
+      for (String dependency : dependsOn) {
+        if (!tasks.containsKey(dependency)) {
+          throw new IllegalArgumentException("Task " + name + " depends on unknown task " + dependency);
+        }
+        dependents.get(dependency).add(name);
+      }
+      pendingCounts.put(name, dependsOn.size());
+    }
+    if (limiter == null && !limitKeys.isEmpty()) {
+      throw new IllegalArgumentException("Task graph has limited tasks but no limiter");
+    }
+    checkAcyclic(pendingCounts, dependents);
+
+    // Both executors complete onto the same queue
+    BlockingQueue<Future<String>> completed = new LinkedBlockingQueue();
+    Scheduler scheduler = new Scheduler(new ExecutorCompletionService(executor, completed),
+            new ExecutorCompletionService(waitExecutor, completed), limiter);
+    Exception failure = null;
+    int running = 0;
+
+    for (String name : tasks.keySet()) {
+      if (pendingCounts.get(name) == 0) {
+        scheduler.schedule(name);
+        running++;
+      }
+    }
+
+    while (running > 0) {
+      Future<String> future = completed.take();
+      running--;
+
+      String name;
+      try {
+        name = future.get();
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+          scheduler.failed.set(true);
+        }
+        continue;
+      }
+
+      LOG.debug("Completed task: " + name);
+      if (failure != null) {
+        continue;
+      }
+
+      for (String dependent : dependents.get(name)) {
+        int pendingCount = pendingCounts.get(dependent) - 1;
+        pendingCounts.put(dependent, pendingCount);
+        if (pendingCount == 0) {
+          scheduler.schedule(dependent);
+          running++;
+        }
+      }
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Walks the graph in dependency order without running anything. Any task
+   * left unvisited waits on a cycle.
+   */
+  private void checkAcyclic(Map<String, Integer> pendingCounts, Map<String, List<String>> dependents) {
+    Map<String, Integer> remaining = new HashMap(pendingCounts);
+    List<String> ready = new ArrayList();
+    for (String name : tasks.keySet()) {
+      if (remaining.get(name) == 0) {
+        ready.add(name);
+      }
+    }
+
+    int visited = 0;
+    while (!ready.isEmpty()) {
+      String name = ready.remove(ready.size() - 1);
+      visited++;
+      for (String dependent : dependents.get(name)) {
+        int pendingCount = remaining.get(dependent) - 1;
+        remaining.put(dependent, pendingCount);
+        if (pendingCount == 0) {
+          ready.add(dependent);
+        }
+      }
+    }
+
+    if (visited < tasks.size()) {
+      throw new IllegalStateException("Task graph contains a dependency cycle");
+    }
+  }
+
+  /**
+   * Starts the tasks of one execution. Limited tasks may be started later
+   * from another graph's thread when the limiter hands them a free slot, so
+   * a task admitted after a failure is skipped rather than run.
+   */
+  private class Scheduler {
+
+    private CompletionService<String> taskService;
+    private CompletionService<String> waitService;
+    private Limiter limiter;
+    private AtomicBoolean failed = new AtomicBoolean();
+
+    Scheduler(CompletionService<String> taskService, CompletionService<String> waitService, Limiter limiter) {
+      this.taskService = taskService;
+      this.waitService = waitService;
+      this.limiter = limiter;
+    }
+
+    void schedule(final String name) {
+      final String limitKey = limitKeys.get(name);
+      if (limitKey == null) {
+        submit(name, null);
+      } else {
+        LOG.debug("Queueing task: " + name + " (" + limitKey + ")");
+        limiter.admit(limitKey, new Runnable() {
+          public void run() {
+            submit(name, limitKey);
+          }
+        });
+      }
+    }
+
+    private void submit(final String name, final String limitKey) {
+      final Task task = tasks.get(name);
+      LOG.debug("Starting task: " + name);
+      CompletionService<String> completionService = waitTasks.contains(name) ? waitService : taskService;
+      completionService.submit(new Callable<String>() {
+        public String call() throws Exception {
+          try {
+            if (!failed.get()) {
+              task.run();
+            }
+          } catch (Exception e) {
+            LOG.debug("Task " + name + " failed: " + e.getMessage());
+            failed.set(true);
+            throw e;
+          } finally {
+            if (limitKey != null) {
+              limiter.release(limitKey);
+            }
+          }
+          return name;
+        }
+      });
+    }
+  }
+}
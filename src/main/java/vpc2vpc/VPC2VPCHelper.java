@@ -1,15 +1,11 @@
 package vpc2vpc;
 
 import com.amazonaws.auth.AWSCredentials;
-import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.model.Address;
-import com.amazonaws.services.ec2.model.DescribeAddressesResult;
-import com.amazonaws.services.ec2.model.DescribeSecurityGroupsResult;
 import com.amazonaws.services.ec2.model.Instance;
 import com.amazonaws.services.ec2.model.Region;
 import com.amazonaws.services.ec2.model.SecurityGroup;
 import com.amazonaws.services.ec2.model.Tag;
-import com.amazonaws.services.ec2.model.Vpc;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -23,40 +19,38 @@ import org.apache.log4j.Logger;
 public class VPC2VPCHelper {
 
   private Logger LOG = Logger.getLogger(VPC2VPCHelper.class);
-  private static VPC2VPCHelper instance;
+  private static final VPC2VPCHelper instance = new VPC2VPCHelper();
 
   private VPC2VPCHelper() {
   }
 
   public static VPC2VPCHelper getInstance() {
-    if (instance == null) {
-      instance = new VPC2VPCHelper();
-    }
     return instance;
   }
 
   public HashMap<String, VPC2VPCConnection> getVPC2VPCConnections(AWSCredentials awsCreds) {
+    return getVPC2VPCConnections(awsCreds, InventoryHelper.getInstance().takeSnapshot(awsCreds));
+  }
 
-    HashMap<Region, List> regionVpcs = VPCHelper.getInstance().listRegionVpcs(awsCreds);
-    HashMap<Region, List> regionInstances = EC2Helper.getInstance().listRegionInstances(awsCreds);
-
-    HashMap<String, Vpc> vpcIdVpc = new HashMap();
-    for (Region region : regionVpcs.keySet()) {
-      List<Vpc> vpcs = regionVpcs.get(region);
-      for (Vpc vpc : vpcs) {
-        vpcIdVpc.put(vpc.getVpcId(), vpc);
-      }
-    }
+  public HashMap<String, VPC2VPCConnection> getVPC2VPCConnections(AWSCredentials awsCreds, InventorySnapshot inventory) {
 
     HashMap<String, VPC2VPCConnection> vpc2vpcIdConnections = new HashMap();
 
-    for (Region region : regionInstances.keySet()) {
+    for (RegionInventory regionInventory : inventory.getRegionInventories()) {
+      Region region = regionInventory.getRegion();
+
+      // Index the region's security groups and elastic IPs once
+      HashMap<String, SecurityGroup> vpcGroupNameSecurityGroup = new HashMap();
+      for (SecurityGroup sg : regionInventory.getSecurityGroups()) {
+        vpcGroupNameSecurityGroup.put(sg.getVpcId() + "/" + sg.getGroupName(), sg);
+      }
 
-      AmazonEC2Client ec2Client = new AmazonEC2Client(awsCreds);
-      ec2Client.setEndpoint(region.getEndpoint());
+      HashMap<String, Address> publicIpAddress = new HashMap();
+      for (Address address : regionInventory.getAddresses()) {
+        publicIpAddress.put(address.getPublicIp(), address);
+      }
 
-      List<Instance> instances = regionInstances.get(region);
-      for (Instance ec2Instance : instances) {
+      for (Instance ec2Instance : regionInventory.getInstances()) {
 
         LOG.debug("instance: " + instance);
         if (ec2Instance.getState().getName().equals("running")) {
@@ -92,31 +86,23 @@ public class VPC2VPCHelper {
 
             VPNEndpoint vpnEndpoint = new VPNEndpoint();
             vpnEndpoint.setRegion(region);
-            vpnEndpoint.setVpc(vpcIdVpc.get(vpcId));
+            vpnEndpoint.setVpc(inventory.getVpc(vpcId));
             vpnEndpoint.setInstance(ec2Instance);
             vpnEndpoint.setElasticIPAddress(vpc2vpcPublicIp);
 
             // Get the id of the security group
-            ec2Client.describeSecurityGroups();
-            DescribeSecurityGroupsResult descSecGrpResult = ec2Client.describeSecurityGroups();
-            for(SecurityGroup sg : descSecGrpResult.getSecurityGroups()) {
-              if(sg.getGroupName().equals(vpc2vpcId)) {
-                vpnEndpoint.setSecurityGroupId(sg.getGroupId());
-                break;
-              }
+            SecurityGroup sg = vpcGroupNameSecurityGroup.get(vpcId + "/" + vpc2vpcId);
+            if (sg != null) {
+              vpnEndpoint.setSecurityGroupId(sg.getGroupId());
             }
-            
+
             // Get the EIP allocation ID
-            DescribeAddressesResult descAddressesResult = ec2Client.describeAddresses();
-            List<Address> addresses = descAddressesResult.getAddresses();
-            for(Address address : addresses) {
-              if(address.getPublicIp().equals(vpc2vpcPublicIp)) {
-                vpnEndpoint.setElasticIPAddress(address.getPublicIp());
-                vpnEndpoint.setElasticIPAllocationId(address.getAllocationId());
-
-                LOG.debug("Found EIP: " + address);
-                break;
-              }
+            Address address = vpc2vpcPublicIp == null ? null : publicIpAddress.get(vpc2vpcPublicIp);
+            if (address != null) {
+              vpnEndpoint.setElasticIPAddress(address.getPublicIp());
+              vpnEndpoint.setElasticIPAllocationId(address.getAllocationId());
+
+              LOG.debug("Found EIP: " + address);
             }
 
             HashMap<String, VPNEndpoint> vpcIdVpnEndpoint = connection.getVpcIdVpnEndpoint();
@@ -0,0 +1,99 @@
+package vpc2vpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * CidrOverlapAnalyzerTest
+ *
+ * @author Vinay Selvaraj
+ */
+public class CidrOverlapAnalyzerTest {
+
+  @Test
+  public void findsNoOverlapsInDisjointBlocks() {
+    CidrOverlapAnalyzer<String> analyzer = new CidrOverlapAnalyzer<String>();
+    analyzer.add(Cidr.parse("10.1.0.0/16"), "a");
+    analyzer.add(Cidr.parse("10.2.0.0/16"), "b");
+    analyzer.add(Cidr.parse("192.168.0.0/24"), "c");
+    assertTrue(analyzer.findOverlaps().isEmpty());
+  }
+
+  @Test
+  public void findsNestedAndEqualBlocks() {
+    CidrOverlapAnalyzer<String> analyzer = new CidrOverlapAnalyzer<String>();
+    analyzer.add(Cidr.parse("10.1.0.0/24"), "inner");
+    analyzer.add(Cidr.parse("10.1.0.0/16"), "outer");
+    analyzer.add(Cidr.parse("10.2.0.0/16"), "other");
+    analyzer.add(Cidr.parse("10.2.0.0/16"), "same");
+
+    assertEquals(sorted("outer (10.1.0.0/16) overlaps inner (10.1.0.0/24)",
+            "other (10.2.0.0/16) overlaps same (10.2.0.0/16)"), describe(analyzer.findOverlaps()));
+  }
+
+  @Test
+  public void findsEveryEnclosingBlock() {
+    CidrOverlapAnalyzer<String> analyzer = new CidrOverlapAnalyzer<String>();
+    analyzer.add(Cidr.parse("10.0.0.0/8"), "a");
+    analyzer.add(Cidr.parse("10.1.0.0/16"), "b");
+    analyzer.add(Cidr.parse("10.1.2.0/24"), "c");
+    analyzer.add(Cidr.parse("10.1.3.0/24"), "d");
+
+    assertEquals(sorted("a (10.0.0.0/8) overlaps b (10.1.0.0/16)",
+            "a (10.0.0.0/8) overlaps c (10.1.2.0/24)",
+            "a (10.0.0.0/8) overlaps d (10.1.3.0/24)",
+            "b (10.1.0.0/16) overlaps c (10.1.2.0/24)",
+            "b (10.1.0.0/16) overlaps d (10.1.3.0/24)"), describe(analyzer.findOverlaps()));
+  }
+
+  @Test
+  public void matchesPairwiseComparison() {
+    Random random = new Random(42);
+    List<Cidr> cidrs = new ArrayList<Cidr>();
+    CidrOverlapAnalyzer<Integer> analyzer = new CidrOverlapAnalyzer<Integer>();
+    for (int i = 0; i < 200; i++) {
+      Cidr cidr = new Cidr(0x0a000000 | (random.nextInt() & 0x00ffffff), 8 + random.nextInt(25));
+      cidrs.add(cidr);
+      analyzer.add(cidr, i);
+    }
+
+    int expected = 0;
+    for (int i = 0; i < cidrs.size(); i++) {
+      for (int j = i + 1; j < cidrs.size(); j++) {
+        if (cidrs.get(i).overlaps(cidrs.get(j))) {
+          expected++;
+        }
+      }
+    }
+
+    List<CidrOverlapAnalyzer.Overlap<Integer>> overlaps = analyzer.findOverlaps();
+    assertEquals(expected, overlaps.size());
+    for (CidrOverlapAnalyzer.Overlap<Integer> overlap : overlaps) {
+      assertTrue(overlap.toString(), overlap.getOuterCidr().contains(overlap.getInnerCidr()));
+      assertEquals(cidrs.get(overlap.getOuter()), overlap.getOuterCidr());
+      assertEquals(cidrs.get(overlap.getInner()), overlap.getInnerCidr());
+    }
+  }
+
+  private List<String> describe(List<? extends CidrOverlapAnalyzer.Overlap<?>> overlaps) {
+    List<String> descriptions = new ArrayList<String>();
+    for (CidrOverlapAnalyzer.Overlap<?> overlap : overlaps) {
+      descriptions.add(overlap.toString());
+    }
+    Collections.sort(descriptions);
+    return descriptions;
+  }
+
+  private List<String> sorted(String... descriptions) {
+    List<String> list = new ArrayList<String>();
+    Collections.addAll(list, descriptions);
+    Collections.sort(list);
+    return list;
+  }
+}
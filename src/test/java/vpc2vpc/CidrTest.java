@@ -0,0 +1,77 @@
+package vpc2vpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * CidrTest
+ *
+ * @author Vinay Selvaraj
+ */
+public class CidrTest {
+
+  @Test
+  public void parsesBlock() {
+    Cidr cidr = Cidr.parse("10.1.0.0/16");
+    assertEquals(16, cidr.getPrefixLength());
+    assertEquals(0x0a010000L, cidr.getFirst());
+    assertEquals(0x0a01ffffL, cidr.getLast());
+    assertEquals("10.1.0.0/16", cidr.toString());
+  }
+
+  @Test
+  public void clearsHostBits() {
+    assertEquals(Cidr.parse("10.0.0.0/16"), Cidr.parse("10.0.1.7/16"));
+    assertEquals("10.0.0.0/16", Cidr.parse("10.0.1.7/16").toString());
+  }
+
+  @Test
+  public void parsesEdgePrefixLengths() {
+    assertEquals(0L, Cidr.parse("0.0.0.0/0").getFirst());
+    assertEquals(0xffffffffL, Cidr.parse("0.0.0.0/0").getLast());
+    assertEquals(0xffffffffL, Cidr.parse("255.255.255.255/32").getFirst());
+    assertEquals(0xffffffffL, Cidr.parse("255.255.255.255/32").getLast());
+  }
+
+  @Test
+  public void rejectsInvalidBlocks() {
+    String[] invalid = {null, "", "10.1.0.0", "10.1.0/16", "10.1.0.0.0/16", "10.1.0.256/16",
+      "10.1.0.0/33", "10.1.0.0/", "10.1.0.0/016", "10.1.0.0/1a", "1000.1.0.0/16", "10.1.0.0/16 ",
+      "a.b.c.d/16", "10..0.0/16", "vpc-1a2b3c4d"};
+    for (String cidrNotation : invalid) {
+      assertNull(cidrNotation, Cidr.tryParse(cidrNotation));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void parseThrowsOnInvalidBlock() {
+    Cidr.parse("10.1.0.0/33");
+  }
+
+  @Test
+  public void containsAndOverlaps() {
+    Cidr vpc = Cidr.parse("10.1.0.0/16");
+    Cidr subnet = Cidr.parse("10.1.2.0/24");
+    Cidr other = Cidr.parse("10.2.0.0/16");
+
+    assertTrue(vpc.contains(subnet));
+    assertTrue(vpc.contains(vpc));
+    assertFalse(subnet.contains(vpc));
+    assertTrue(vpc.overlaps(subnet));
+    assertTrue(subnet.overlaps(vpc));
+    assertFalse(vpc.overlaps(other));
+    assertTrue(Cidr.parse("0.0.0.0/0").contains(other));
+  }
+
+  @Test
+  public void getsBitsMostSignificantFirst() {
+    Cidr cidr = Cidr.parse("128.0.0.1/32");
+    assertEquals(1, cidr.getBit(0));
+    assertEquals(0, cidr.getBit(1));
+    assertEquals(1, cidr.getBit(31));
+  }
+}
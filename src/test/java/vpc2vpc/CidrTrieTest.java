@@ -0,0 +1,85 @@
+package vpc2vpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * CidrTrieTest
+ *
+ * @author Vinay Selvaraj
+ */
+public class CidrTrieTest {
+
+  private CidrTrie<String> trie;
+
+  @Before
+  public void setUp() {
+    trie = new CidrTrie<String>();
+    trie.put(Cidr.parse("10.1.0.0/16"), "vpc-a");
+    trie.put(Cidr.parse("10.1.0.0/20"), "subnet-a1");
+    trie.put(Cidr.parse("10.1.16.0/20"), "subnet-a2");
+    trie.put(Cidr.parse("10.2.0.0/16"), "vpc-b");
+  }
+
+  @Test
+  public void getsExactBlock() {
+    assertEquals(Arrays.asList("subnet-a1"), trie.get(Cidr.parse("10.1.0.0/20")));
+    assertEquals(Arrays.asList("vpc-a"), trie.get(Cidr.parse("10.1.0.0/16")));
+    assertTrue(trie.get(Cidr.parse("10.1.0.0/24")).isEmpty());
+    assertEquals(4, trie.size());
+  }
+
+  @Test
+  public void holdsSeveralValuesPerBlock() {
+    trie.put(Cidr.parse("10.2.0.0/16"), "vpc-c");
+    assertEquals(Arrays.asList("vpc-b", "vpc-c"), trie.get(Cidr.parse("10.2.0.0/16")));
+    assertEquals(5, trie.size());
+  }
+
+  @Test
+  public void getsBlocksContainingLeastSpecificFirst() {
+    assertEquals(Arrays.asList("vpc-a", "subnet-a1"), trie.getContaining(Cidr.parse("10.1.0.0/20")));
+    assertEquals(Arrays.asList("vpc-a", "subnet-a1"), trie.getContaining(Cidr.parse("10.1.3.4/32")));
+    assertEquals(Arrays.asList("vpc-a", "subnet-a2"), trie.getContaining(Cidr.parse("10.1.16.0/24")));
+    assertEquals(Arrays.asList("vpc-a"), trie.getContaining(Cidr.parse("10.1.200.0/24")));
+    assertEquals(Arrays.asList("vpc-a"), trie.getContaining(Cidr.parse("10.1.0.0/16")));
+  }
+
+  @Test
+  public void getsEveryBlockContaining() {
+    trie.put(Cidr.parse("10.1.0.0/24"), "vpc-c");
+    assertEquals(Arrays.asList("vpc-a", "subnet-a1", "vpc-c"), trie.getContaining(Cidr.parse("10.1.0.5/32")));
+  }
+
+  @Test
+  public void getContainingIgnoresMoreSpecificBlocks() {
+    assertTrue(trie.getContaining(Cidr.parse("10.0.0.0/8")).isEmpty());
+    assertTrue(trie.getContaining(Cidr.parse("10.3.0.0/16")).isEmpty());
+  }
+
+  @Test
+  public void getsBlocksContainedBy() {
+    assertEquals(new HashSet<String>(Arrays.asList("vpc-a", "subnet-a1", "subnet-a2", "vpc-b")),
+            new HashSet<String>(trie.getContainedBy(Cidr.parse("10.0.0.0/8"))));
+    assertEquals(new HashSet<String>(Arrays.asList("vpc-a", "subnet-a1", "subnet-a2")),
+            new HashSet<String>(trie.getContainedBy(Cidr.parse("10.1.0.0/16"))));
+    assertTrue(trie.getContainedBy(Cidr.parse("10.1.32.0/20")).isEmpty());
+    assertTrue(trie.getContainedBy(Cidr.parse("192.168.0.0/16")).isEmpty());
+  }
+
+  @Test
+  public void handlesDefaultRoute() {
+    CidrTrie<String> routes = new CidrTrie<String>();
+    assertTrue(routes.isEmpty());
+    assertTrue(routes.getContainedBy(Cidr.parse("0.0.0.0/0")).isEmpty());
+
+    routes.put(Cidr.parse("0.0.0.0/0"), "igw");
+    assertEquals(Arrays.asList("igw"), routes.getContaining(Cidr.parse("10.1.0.0/16")));
+    assertEquals(Arrays.asList("igw"), routes.getContainedBy(Cidr.parse("0.0.0.0/0")));
+  }
+}
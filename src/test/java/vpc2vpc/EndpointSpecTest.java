@@ -0,0 +1,46 @@
+package vpc2vpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * EndpointSpecTest
+ *
+ * @author Vinay Selvaraj
+ */
+public class EndpointSpecTest {
+
+  @Test
+  public void parsesVpcId() {
+    EndpointSpec spec = EndpointSpec.parse("vpc-1a2b3c4d");
+    assertEquals(EndpointSpec.Type.VPC_ID, spec.getType());
+    assertEquals("vpc-1a2b3c4d", spec.getText());
+    assertNull(spec.getCidr());
+  }
+
+  @Test
+  public void parsesSubnetId() {
+    EndpointSpec spec = EndpointSpec.parse("subnet-0123456789abcdef0");
+    assertEquals(EndpointSpec.Type.SUBNET_ID, spec.getType());
+    assertEquals("subnet-0123456789abcdef0", spec.getText());
+  }
+
+  @Test
+  public void parsesCidr() {
+    EndpointSpec spec = EndpointSpec.parse("10.1.2.3/32");
+    assertEquals(EndpointSpec.Type.CIDR, spec.getType());
+    assertEquals("10.1.2.3/32", spec.getText());
+    assertEquals(Cidr.parse("10.1.2.3/32"), spec.getCidr());
+  }
+
+  @Test
+  public void rejectsOtherArguments() {
+    String[] invalid = {null, "", "create", "-v", "vpc-1a2b/3c", "subnet-1a2b.3c", "igw-1a2b3c4d",
+      "10.1.0.0", "10.1.0.0/40"};
+    for (String arg : invalid) {
+      assertNull(arg, EndpointSpec.parse(arg));
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package vpc2vpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.amazonaws.services.ec2.model.Region;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * RegionFilterTest
+ *
+ * @author Vinay Selvaraj
+ */
+public class RegionFilterTest {
+
+  private List<Region> regions(String... regionNames) {
+    List<Region> regions = new ArrayList<Region>();
+    for (String regionName : regionNames) {
+      regions.add(new Region().withRegionName(regionName));
+    }
+    return regions;
+  }
+
+  private List<String> names(List<Region> regions) {
+    List<String> regionNames = new ArrayList<String>();
+    for (Region region : regions) {
+      regionNames.add(region.getRegionName());
+    }
+    return regionNames;
+  }
+
+  @Test
+  public void splitsOnCommasAndSpaces() {
+    assertEquals(Arrays.asList("us-east-1", "eu-*", "ap-southeast-2"),
+            RegionFilter.split(" us-east-1, eu-*  ap-southeast-2,"));
+    assertTrue(RegionFilter.split("").isEmpty());
+  }
+
+  @Test
+  public void matchesNamesAndPrefixes() {
+    RegionFilter filter = new RegionFilter(Arrays.asList("us-*", "eu-west-1"), Collections.<String>emptyList());
+    assertTrue(filter.accepts("us-east-1"));
+    assertTrue(filter.accepts("us-west-2"));
+    assertTrue(filter.accepts("eu-west-1"));
+    assertFalse(filter.accepts("eu-west-2"));
+    assertFalse(filter.accepts("ap-northeast-1"));
+  }
+
+  @Test
+  public void denyListWins() {
+    RegionFilter filter = new RegionFilter(null, Arrays.asList("us-gov-*", "cn-north-1"));
+    assertTrue(filter.accepts("us-east-1"));
+    assertFalse(filter.accepts("us-gov-west-1"));
+    assertFalse(filter.accepts("cn-north-1"));
+
+    filter = new RegionFilter(Arrays.asList("us-*"), Arrays.asList("us-west-1"));
+    assertEquals(Arrays.asList("us-east-1", "us-west-2"),
+            names(filter.filter(regions("us-east-1", "us-west-1", "us-west-2", "eu-west-1"))));
+  }
+
+  @Test
+  public void reportsUnmatchedPatterns() {
+    RegionFilter filter = new RegionFilter(Arrays.asList("us-east-1", "us-esat-1", "ap-*", "sa-*"), null);
+    assertEquals(Arrays.asList("us-esat-1", "sa-*"),
+            filter.getUnmatched(regions("us-east-1", "ap-southeast-1")));
+    assertTrue(new RegionFilter(null, null).getUnmatched(regions("us-east-1")).isEmpty());
+  }
+}
@@ -0,0 +1,148 @@
+package vpc2vpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * TaskGraphTest
+ *
+ * @author Vinay Selvaraj
+ */
+public class TaskGraphTest {
+
+  private ExecutorService executor;
+  private List<String> completed;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+    completed = Collections.synchronizedList(new ArrayList<String>());
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private TaskGraph.Task record(final String name) {
+    return new TaskGraph.Task() {
+      public void run() {
+        completed.add(name);
+      }
+    };
+  }
+
+  @Test
+  public void runsTasksAfterTheirDependencies() throws Exception {
+    TaskGraph graph = new TaskGraph();
+    graph.addTask("route", record("route"), "instance-a", "instance-b");
+    graph.addTask("instance-a", record("instance-a"), "sg");
+    graph.addTask("instance-b", record("instance-b"), "sg");
+    graph.addTask("sg", record("sg"));
+    graph.execute(executor);
+
+    assertEquals(4, completed.size());
+    assertEquals("sg", completed.get(0));
+    assertEquals("route", completed.get(3));
+  }
+
+  @Test
+  public void throwsFirstFailureAndSkipsDependents() throws Exception {
+    final Exception error = new Exception("instance failed");
+    TaskGraph graph = new TaskGraph();
+    graph.addTask("sg", record("sg"));
+    graph.addTask("instance", new TaskGraph.Task() {
+      public void run() throws Exception {
+        throw error;
+      }
+    }, "sg");
+    graph.addTask("route", record("route"), "instance");
+
+    try {
+      graph.execute(executor);
+      fail("Expected the task failure");
+    } catch (Exception e) {
+      assertSame(error, e);
+    }
+    assertTrue(completed.contains("sg"));
+    assertFalse(completed.contains("route"));
+  }
+
+  @Test
+  public void limitsTasksPerKey() throws Exception {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    TaskGraph graph = new TaskGraph();
+    for (int i = 0; i < 6; i++) {
+      final String name = "task-" + i;
+      graph.addLimitedTask(name, "us-east-1", new TaskGraph.Task() {
+        public void run() throws Exception {
+          int now = running.incrementAndGet();
+          synchronized (maxRunning) {
+            maxRunning.set(Math.max(maxRunning.get(), now));
+          }
+          Thread.sleep(10);
+          running.decrementAndGet();
+          completed.add(name);
+        }
+      });
+    }
+    graph.addLimitedTask("other", "us-west-2", record("other"));
+    graph.execute(executor, executor, new RegionLimiter(2));
+
+    assertEquals(7, completed.size());
+    assertTrue(maxRunning.get() <= 2);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void detectsCycles() throws Exception {
+    TaskGraph graph = new TaskGraph();
+    graph.addTask("a", record("a"), "b");
+    graph.addTask("b", record("b"), "a");
+    graph.execute(executor);
+  }
+
+  @Test
+  public void runsNothingWhenGraphHasCycle() throws Exception {
+    TaskGraph graph = new TaskGraph();
+    graph.addTask("sg", record("sg"));
+    graph.addTask("instance", record("instance"), "sg");
+    graph.addTask("a", record("a"), "b");
+    graph.addTask("b", record("b"), "a");
+
+    try {
+      graph.execute(executor);
+      fail("Expected the cycle to be rejected");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    assertTrue(completed.isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownDependencies() throws Exception {
+    TaskGraph graph = new TaskGraph();
+    graph.addTask("a", record("a"), "missing");
+    graph.execute(executor);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsDuplicateTasks() {
+    TaskGraph graph = new TaskGraph();
+    graph.addTask("a", record("a"));
+    graph.addTask("a", record("a"));
+  }
+}